@@ -0,0 +1,248 @@
+/* vim: set ts=2: */
+/**
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions, and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions, and the following
+ *      disclaimer in the documentation and/or other materials provided
+ *      with the distribution.
+ *   3. Redistributions must acknowledge that this software was
+ *      originally developed by the UCSF Computer Graphics Laboratory
+ *      under support by the NIH National Center for Research Resources,
+ *      grant P41-RR01081.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE REGENTS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package clusterMaker.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cytoscape.Cytoscape;
+import cytoscape.data.CyAttributes;
+import cytoscape.data.attr.MultiHashMapListener;
+
+import giny.model.GraphObject;
+
+/**
+ * This class caches the numeric values of node or edge attributes so that
+ * repeated clusterer runs over the same attributes don't need to go back to
+ * CyAttributes for every node or edge.  Values are stored in a primitive
+ * array for each attribute, indexed by the (negated) root graph index of the
+ * node or edge.  Since attributes and root graph indices are shared by all
+ * networks, one array serves every network.  The cached values for an
+ * attribute are dropped whenever any value of that attribute changes.
+ * The root graph reuses the indices of deleted nodes and edges, so we also
+ * remember which identifier each index was read for, and drop the values at
+ * an index when it turns up with a different identifier.
+ */
+public class AttributeCache implements MultiHashMapListener {
+	/**
+ 	 * Value returned for objects that have no numeric value for the attribute
+ 	 */
+	public static final double NO_VALUE = Double.MIN_VALUE;
+
+	// Below this many values, it's not worth reading attributes in parallel
+	private static final int PARALLEL_THRESHOLD = 100000;
+
+	private static AttributeCache nodeCache = null;
+	private static AttributeCache edgeCache = null;
+
+	private CyAttributes attributes;
+
+	// Values for each attribute.  NaN marks an object we haven't read yet.
+	private Map<String, double[]> valueMap;
+
+	// The identifier of the object whose values are cached at each index
+	private String[] identifiers;
+
+	private AttributeCache(CyAttributes attributes) {
+		this.attributes = attributes;
+		valueMap = new HashMap<String, double[]>();
+		identifiers = new String[0];
+	}
+
+	public static synchronized AttributeCache getNodeCache() {
+		if (nodeCache == null) {
+			nodeCache = new AttributeCache(Cytoscape.getNodeAttributes());
+			nodeCache.attributes.getMultiHashMap().addDataListener(nodeCache);
+		}
+		return nodeCache;
+	}
+
+	public static synchronized AttributeCache getEdgeCache() {
+		if (edgeCache == null) {
+			edgeCache = new AttributeCache(Cytoscape.getEdgeAttributes());
+			edgeCache.attributes.getMultiHashMap().addDataListener(edgeCache);
+		}
+		return edgeCache;
+	}
+
+	/**
+ 	 * Get the values of an attribute for a list of nodes or edges.
+ 	 *
+ 	 * @param attributeName the name of the attribute
+ 	 * @param objects the nodes or edges we want the values for
+ 	 * @return the value of the attribute for each object, or NO_VALUE if
+ 	 * the object doesn't have a numeric value
+ 	 */
+	public double[] getValues(String attributeName, List<? extends GraphObject> objects) {
+		return getValues(new String[] {attributeName}, objects)[0];
+	}
+
+	/**
+ 	 * Get the values of several attributes for a list of nodes or edges.
+ 	 * For large requests, each attribute is read on its own thread.
+ 	 *
+ 	 * @param attributeNames the names of the attributes
+ 	 * @param objects the nodes or edges we want the values for
+ 	 * @return the values, indexed by [attribute][object], with NO_VALUE for
+ 	 * objects that don't have a numeric value
+ 	 */
+	public synchronized double[][] getValues(final String[] attributeNames, 
+	                                         final List<? extends GraphObject> objects) {
+		int maxIndex = 0;
+		final int[] indices = new int[objects.size()];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = -objects.get(i).getRootGraphIndex();
+			maxIndex = Math.max(maxIndex, indices[i]);
+		}
+		checkIdentifiers(objects, indices, maxIndex);
+
+		final double[][] values = new double[attributeNames.length][];
+		final double[][] cachedValues = new double[attributeNames.length][];
+		for (int attr = 0; attr < attributeNames.length; attr++)
+			cachedValues[attr] = getCachedValues(attributeNames[attr], maxIndex);
+
+		int nThreads = Math.min(attributeNames.length, Runtime.getRuntime().availableProcessors());
+		if (nThreads <= 1 || (long)objects.size()*attributeNames.length < PARALLEL_THRESHOLD) {
+			for (int attr = 0; attr < attributeNames.length; attr++)
+				values[attr] = readValues(attributeNames[attr], cachedValues[attr], objects, indices);
+			return values;
+		}
+
+		ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for (int attr = 0; attr < attributeNames.length; attr++) {
+			final int attribute = attr;
+			results.add(threadPool.submit(new Runnable() {
+				public void run() {
+					values[attribute] = readValues(attributeNames[attribute], cachedValues[attribute],
+					                               objects, indices);
+				}
+			}));
+		}
+		threadPool.shutdown();
+
+		try {
+			for (Future<?> result: results)
+				result.get();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		return values;
+	}
+
+	/**
+ 	 * Drop the cached values at any index that now belongs to a different
+ 	 * node or edge than the one the values were read for
+ 	 */
+	private void checkIdentifiers(List<? extends GraphObject> objects, int[] indices, int maxIndex) {
+		if (identifiers.length <= maxIndex)
+			identifiers = Arrays.copyOf(identifiers, Math.max(maxIndex+1, identifiers.length*2));
+
+		for (int i = 0; i < indices.length; i++) {
+			int index = indices[i];
+			String id = objects.get(i).getIdentifier();
+			if (id.equals(identifiers[index]))
+				continue;
+			if (identifiers[index] != null) {
+				for (double[] cachedValues: valueMap.values()) {
+					if (index < cachedValues.length)
+						cachedValues[index] = Double.NaN;
+				}
+			}
+			identifiers[index] = id;
+		}
+	}
+
+	/**
+ 	 * Get the cached array for an attribute, making sure it can hold maxIndex
+ 	 */
+	private double[] getCachedValues(String attributeName, int maxIndex) {
+		double[] cachedValues = valueMap.get(attributeName);
+		if (cachedValues != null && cachedValues.length > maxIndex)
+			return cachedValues;
+
+		int oldLength = (cachedValues == null) ? 0 : cachedValues.length;
+		double[] newValues = new double[Math.max(maxIndex+1, oldLength*2)];
+		Arrays.fill(newValues, oldLength, newValues.length, Double.NaN);
+		if (cachedValues != null)
+			System.arraycopy(cachedValues, 0, newValues, 0, oldLength);
+		valueMap.put(attributeName, newValues);
+		return newValues;
+	}
+
+	private double[] readValues(String attributeName, double[] cachedValues, 
+	                            List<? extends GraphObject> objects, int[] indices) {
+		byte type = attributes.getType(attributeName);
+		double[] values = new double[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			int index = indices[i];
+			if (Double.isNaN(cachedValues[index]))
+				cachedValues[index] = readValue(type, objects.get(i).getIdentifier(), attributeName);
+			values[i] = cachedValues[index];
+		}
+		return values;
+	}
+
+	private double readValue(byte type, String id, String attributeName) {
+		if (!attributes.hasAttribute(id, attributeName))
+			return NO_VALUE;
+
+		if (type == CyAttributes.TYPE_FLOATING)
+			return attributes.getDoubleAttribute(id, attributeName).doubleValue();
+		else if (type == CyAttributes.TYPE_INTEGER)
+			return attributes.getIntegerAttribute(id, attributeName).doubleValue();
+
+		return NO_VALUE;
+	}
+
+	public synchronized void attributeValueAssigned(String objectKey, String attributeName,
+	                                                Object[] keyIntoValue, Object oldAttributeValue,
+	                                                Object newAttributeValue) {
+		valueMap.remove(attributeName);
+	}
+
+	public synchronized void attributeValueRemoved(String objectKey, String attributeName,
+	                                               Object[] keyIntoValue, Object attributeValue) {
+		valueMap.remove(attributeName);
+	}
+
+	public synchronized void allAttributeValuesRemoved(String objectKey, String attributeName) {
+		valueMap.remove(attributeName);
+	}
+}
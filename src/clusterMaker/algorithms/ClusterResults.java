@@ -35,6 +35,7 @@ package clusterMaker.algorithms;
 import java.text.NumberFormat;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -103,27 +104,89 @@ public class ClusterResults {
 		modularity = 0.0;
 		double edgeCount = (double)network.getEdgeCount();
 
+		int[] innerEdges = new int[clusterCount];
+		int[] outerEdges = new int[clusterCount];
+		if (!countEdges(innerEdges, outerEdges)) {
+			// Overlapping clusters -- count each cluster on its own
+			int clusterNumber = 0;
+			for (List<CyNode> cluster: clusters) {
+				innerEdges[clusterNumber] = getInnerEdgeCount(cluster);
+				outerEdges[clusterNumber] = getOuterEdgeCount(cluster);
+				clusterNumber++;
+			}
+		}
+
 		int clusterNumber = 0;
 		for (List<CyNode> cluster: clusters) {
 			averageSize += (double)cluster.size() / (double)clusterCount;
 			maxSize = Math.max(maxSize, cluster.size());
 			minSize = Math.min(minSize, cluster.size());
-			double innerEdges = getInnerEdgeCount(cluster);
-			double outerEdges = getOuterEdgeCount(cluster);
-			clusterCoefficient += (innerEdges / (innerEdges+outerEdges)) / (double)(clusterCount);
+			double inner = (double)innerEdges[clusterNumber];
+			double outer = (double)outerEdges[clusterNumber];
+			clusterCoefficient += (inner / (inner+outer)) / (double)(clusterCount);
 
-			double percentEdgesInCluster = innerEdges/edgeCount;
-			double percentEdgesTouchingCluster = (innerEdges+outerEdges)/edgeCount;
+			double percentEdgesInCluster = inner/edgeCount;
+			double percentEdgesTouchingCluster = (inner+outer)/edgeCount;
 			modularity += percentEdgesInCluster - percentEdgesTouchingCluster*percentEdgesTouchingCluster;
 			clusterNumber++;
 		}
 	}
 
-	private double getInnerEdgeCount(List<CyNode> cluster) {
-		return (double) network.getConnectingEdges(cluster).size();
+	/**
+ 	 * Count the inner and outer edges of every cluster with a single pass
+ 	 * over the network's edges.  Nodes are mapped to their cluster through
+ 	 * an array indexed by (negated) root graph index.
+ 	 *
+ 	 * @param innerEdges the number of edges with both ends in each cluster
+ 	 * @param outerEdges the number of edges with only one end in each cluster
+ 	 * @return false if a node is in more than one cluster, in which case
+ 	 * the counts are not filled in
+ 	 */
+	private boolean countEdges(int[] innerEdges, int[] outerEdges) {
+		int maxIndex = 0;
+		for (List<CyNode> cluster: clusters) {
+			for (CyNode node: cluster)
+				maxIndex = Math.max(maxIndex, -node.getRootGraphIndex());
+		}
+		for (CyNode node: (List<CyNode>)network.nodesList())
+			maxIndex = Math.max(maxIndex, -node.getRootGraphIndex());
+
+		int[] nodeCluster = new int[maxIndex+1];
+		Arrays.fill(nodeCluster, -1);
+		int clusterNumber = 0;
+		for (List<CyNode> cluster: clusters) {
+			for (CyNode node: cluster) {
+				int index = -node.getRootGraphIndex();
+				if (nodeCluster[index] == clusterNumber)
+					continue;
+				if (nodeCluster[index] >= 0)
+					return false;
+				nodeCluster[index] = clusterNumber;
+			}
+			clusterNumber++;
+		}
+
+		for (Edge edge: (List<Edge>)network.edgesList()) {
+			int sourceCluster = nodeCluster[-edge.getSource().getRootGraphIndex()];
+			int targetCluster = nodeCluster[-edge.getTarget().getRootGraphIndex()];
+			if (sourceCluster == targetCluster) {
+				if (sourceCluster >= 0)
+					innerEdges[sourceCluster]++;
+				continue;
+			}
+			if (sourceCluster >= 0)
+				outerEdges[sourceCluster]++;
+			if (targetCluster >= 0)
+				outerEdges[targetCluster]++;
+		}
+		return true;
+	}
+
+	private int getInnerEdgeCount(List<CyNode> cluster) {
+		return network.getConnectingEdges(cluster).size();
 	}
 
-	private double getOuterEdgeCount(List<CyNode> cluster) {
+	private int getOuterEdgeCount(List<CyNode> cluster) {
 		// Get all of the inner edges
 		List<Edge> innerEdges = network.getConnectingEdges(cluster);
 
@@ -141,7 +204,7 @@ public class ClusterResults {
 					outerCount++;
 			}
 		}
-		return (double) outerCount;
+		return outerCount;
 	}
 
 }
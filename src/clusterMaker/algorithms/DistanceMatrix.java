@@ -1,6 +1,7 @@
 package clusterMaker.algorithms;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,7 +15,6 @@ import cytoscape.data.CyAttributes;
 import cytoscape.logger.CyLogger;
 
 import cern.colt.function.IntIntDoubleFunction;
-import cern.colt.matrix.DoubleFactory2D;
 import cern.colt.matrix.DoubleMatrix2D;
 import cern.colt.matrix.impl.SparseDoubleMatrix2D;
 
@@ -36,6 +36,16 @@ public class DistanceMatrix {
 	private DoubleMatrix2D matrix = null;
 	private EdgeWeightConverter converter = null;
 
+	// Node index of each edge's source and target
+	private int[] edgeSources = null;
+	private int[] edgeTargets = null;
+
+	// Compressed sparse row form of the matrix: the entries of row r are
+	// columnIndex[rowStart[r]] .. columnIndex[rowStart[r+1]-1], in edge order
+	private int[] rowStart = null;
+	private int[] columnIndex = null;
+	private double[] values = null;
+
 	private double[] edgeWeights = null;
 
 	public DistanceMatrix(String edgeAttributeName, boolean selectedOnly, EdgeWeightConverter converter) {
@@ -54,50 +64,43 @@ public class DistanceMatrix {
 			edges = network.getConnectingEdges(nodes);
 		}
 
-		CyAttributes edgeAttributes = Cytoscape.getEdgeAttributes();
+		// Raw attribute values come from the cache, so we only go to CyAttributes
+		// the first time an attribute is used (or after it changes)
+		edgeWeights = AttributeCache.getEdgeCache().getValues(edgeAttributeName, edges);
 
-		edgeWeights = new double[edges.size()];
-
-		// We do a fair amount of massaging the data, so let's just do it once
+		boolean noneAttribute = edgeAttributeName.equals(EdgeAttributeHandler.NONEATTRIBUTE);
+		CyAttributes edgeAttributes = Cytoscape.getEdgeAttributes();
 		for(int edgeIndex = 0; edgeIndex < edges.size(); edgeIndex++) {
-			CyEdge edge = edges.get(edgeIndex);
-			String id = edge.getIdentifier();
-
-			edgeWeights[edgeIndex] = Double.MIN_VALUE;
-
-			if(!edgeAttributes.hasAttribute(id,edgeAttributeName)) {
+			double edgeWeight = edgeWeights[edgeIndex];
+			if (edgeWeight == AttributeCache.NO_VALUE) {
 				// Special-case for "None" attribute.  We just assign an edge value of 1.
-				if (edgeAttributeName.equals(EdgeAttributeHandler.NONEATTRIBUTE))
+				if (noneAttribute && !edgeAttributes.hasAttribute(edges.get(edgeIndex).getIdentifier(),edgeAttributeName))
 					edgeWeights[edgeIndex] = 1.0;
 				continue;
 			}
 
-			double edgeWeight = 0.0;
-			if(edgeAttributes.getType(edgeAttributeName) == edgeAttributes.TYPE_FLOATING)
-				edgeWeight = edgeAttributes.getDoubleAttribute(id,edgeAttributeName).doubleValue();
-			else if(edgeAttributes.getType(edgeAttributeName) == edgeAttributes.TYPE_INTEGER)
-				edgeWeight = edgeAttributes.getIntegerAttribute(id,edgeAttributeName).doubleValue();
-			else {
-				// System.out.println("Attribute "+edgeAttributeName+" is not a number");
-				continue;
-			}
-
 			minAttribute = Math.min(minAttribute, edgeWeight);
 			maxAttribute = Math.max(maxAttribute, edgeWeight);
-			edgeWeights[edgeIndex] = edgeWeight;
 		}
 
-		// We now have two lists, one with the edges, one with the weights, now massage the edgeWeights data as requested
-		// Note that we need to go through this again to handle some of the edge cases
-		List<Integer> edgeCase = new ArrayList();
-		for(int edgeIndex = 0; edgeIndex < edges.size(); edgeIndex++) {
+		convertWeights();
+	}
+
+	/**
+ 	 * Apply the converter to all of the edge weights, then fix up the
+ 	 * edges the converter couldn't handle.
+ 	 */
+	private void convertWeights() {
+		int[] edgeCase = new int[edgeWeights.length];
+		int edgeCaseCount = 0;
+		for(int edgeIndex = 0; edgeIndex < edgeWeights.length; edgeIndex++) {
 			double edgeWeight = edgeWeights[edgeIndex];
 			if (edgeWeight == Double.MIN_VALUE) continue;
 
 			edgeWeight = converter.convert(edgeWeight, minAttribute, maxAttribute);
 			
 			if (edgeWeight == Double.MIN_VALUE)
-					edgeCase.add(edgeIndex);
+				edgeCase[edgeCaseCount++] = edgeIndex;
 
 			edgeWeights[edgeIndex] = edgeWeight;
 			if (edgeWeight != Double.MIN_VALUE) {
@@ -107,8 +110,8 @@ public class DistanceMatrix {
 		}
 
 		// OK, now we have our two arrays with the exception of the edge cases -- we can fix those, now
-		for (Integer index: edgeCase) {
-			edgeWeights[index] = maxWeight+maxWeight/10.0;
+		for (int i = 0; i < edgeCaseCount; i++) {
+			edgeWeights[edgeCase[i]] = maxWeight+maxWeight/10.0;
 		}
 	}
 
@@ -163,8 +166,24 @@ public class DistanceMatrix {
 		if (matrix == null)
 			getDistanceMatrix();
 
+		FindComponents components = new FindComponents(nodes.size());
+		matrix.forEachNonZero(components);
+
+		// Number the components in node order, leaving out nodes with no edges
 		Map<Integer, List<CyNode>> cmap = new HashMap<Integer, List<CyNode>>();
-		matrix.forEachNonZero(new FindComponents(cmap));
+		int[] clusterNumber = new int[nodes.size()];
+		Arrays.fill(clusterNumber, -1);
+		int clusterCount = 0;
+		for (int node = 0; node < nodes.size(); node++) {
+			if (!components.isConnected(node))
+				continue;
+			int root = components.find(node);
+			if (clusterNumber[root] < 0) {
+				clusterNumber[root] = clusterCount++;
+				cmap.put(clusterNumber[root], new ArrayList<CyNode>());
+			}
+			cmap.get(clusterNumber[root]).add(nodes.get(node));
+		}
 		return cmap;
 	}
 
@@ -172,6 +191,7 @@ public class DistanceMatrix {
 		setEdgeCutOff(edgeCutOff);
 		setUndirectedEdges(undirectedEdges);
 		matrix = null;
+		rowStart = null;
 		return getDistanceMatrix();
 	}
 
@@ -180,29 +200,114 @@ public class DistanceMatrix {
 		if (matrix != null)
 			return matrix;
 
-		matrix = DoubleFactory2D.sparse.make(nodes.size(),nodes.size());
-		int sourceIndex;
-		int targetIndex;
+		buildCompressedRows();
 
-		for(int edgeIndex = 0; edgeIndex < edges.size(); edgeIndex++) {
-			CyEdge edge = edges.get(edgeIndex);
+		// Size the hash up front so that filling it never rehashes
+		matrix = new SparseDoubleMatrix2D(nodes.size(), nodes.size(), Math.max(values.length, 1), 0.2, 0.5);
+		for (int row = 0; row < nodes.size(); row++) {
+			for (int k = rowStart[row]; k < rowStart[row+1]; k++)
+				matrix.setQuick(row, columnIndex[k], values[k]);
+		}
 
-			// Is this weight above the cutoff?
-			if (edgeWeights[edgeIndex] < edgeCutOff) {
-				// System.out.println("Skipping edge "+edge.getIdentifier()+" weight "+edgeWeights[edgeIndex]+" < "+edgeCutOff);
-				continue; // Nope, don't add it
-			}
+		return matrix;
+	}
 
-			/*Add edge to matrix*/
-			sourceIndex = nodes.indexOf(edge.getSource());
-			targetIndex = nodes.indexOf(edge.getTarget());
+	/**
+	 * Get the compressed sparse row form of the distance matrix.  The values are
+	 * the edge weights before any normalization or loop adjustment.
+	 *
+	 * @return the row start offsets (one more than the number of nodes)
+	 */
+	public int[] getRowStarts() {
+		buildCompressedRows();
+		return rowStart;
+	}
 
-			matrix.set(targetIndex,sourceIndex,edgeWeights[edgeIndex]);
-			if(unDirectedEdges)
-				matrix.set(sourceIndex,targetIndex,edgeWeights[edgeIndex]);
+	public int[] getColumnIndices() {
+		buildCompressedRows();
+		return columnIndex;
+	}
+
+	public double[] getMatrixValues() {
+		buildCompressedRows();
+		return values;
+	}
+
+	/**
+	 * Build the node index of every edge endpoint with a single hash lookup per
+	 * endpoint.  Edges whose endpoints aren't in our node list get an index of -1.
+	 */
+	private void buildEdgeIndices() {
+		if (edgeSources != null)
+			return;
+
+		Map<CyNode,Integer> nodeIndex = new HashMap<CyNode,Integer>(nodes.size()*2);
+		for (int index = 0; index < nodes.size(); index++) {
+			if (!nodeIndex.containsKey(nodes.get(index)))
+				nodeIndex.put(nodes.get(index), index);
 		}
 
-		return matrix;
+		edgeSources = new int[edges.size()];
+		edgeTargets = new int[edges.size()];
+		for (int edgeIndex = 0; edgeIndex < edges.size(); edgeIndex++) {
+			CyEdge edge = edges.get(edgeIndex);
+			Integer source = nodeIndex.get(edge.getSource());
+			Integer target = nodeIndex.get(edge.getTarget());
+			edgeSources[edgeIndex] = (source == null) ? -1 : source.intValue();
+			edgeTargets[edgeIndex] = (target == null) ? -1 : target.intValue();
+		}
+	}
+
+	/**
+	 * Build the compressed sparse row arrays in two passes over the edges: count
+	 * the entries in each row, then fill them in.  Rows are indexed by edge target,
+	 * as in the matrix (plus the mirrored entry for undirected edges).
+	 */
+	private void buildCompressedRows() {
+		if (rowStart != null)
+			return;
+
+		buildEdgeIndices();
+
+		int nNodes = nodes.size();
+		int[] start = new int[nNodes+1];
+		for (int edgeIndex = 0; edgeIndex < edges.size(); edgeIndex++) {
+			if (!useEdge(edgeIndex)) continue;
+			start[edgeTargets[edgeIndex]+1]++;
+			if (unDirectedEdges)
+				start[edgeSources[edgeIndex]+1]++;
+		}
+		for (int row = 0; row < nNodes; row++)
+			start[row+1] += start[row];
+
+		int[] next = new int[nNodes];
+		System.arraycopy(start, 0, next, 0, nNodes);
+		int[] columns = new int[start[nNodes]];
+		double[] weights = new double[start[nNodes]];
+		for (int edgeIndex = 0; edgeIndex < edges.size(); edgeIndex++) {
+			if (!useEdge(edgeIndex)) continue;
+			int source = edgeSources[edgeIndex];
+			int target = edgeTargets[edgeIndex];
+			int k = next[target]++;
+			columns[k] = source;
+			weights[k] = edgeWeights[edgeIndex];
+			if (unDirectedEdges) {
+				k = next[source]++;
+				columns[k] = target;
+				weights[k] = edgeWeights[edgeIndex];
+			}
+		}
+
+		rowStart = start;
+		columnIndex = columns;
+		values = weights;
+	}
+
+	// Is this edge in our node list with a weight above the cutoff?
+	private boolean useEdge(int edgeIndex) {
+		if (edgeWeights[edgeIndex] < edgeCutOff)
+			return false;
+		return edgeSources[edgeIndex] >= 0 && edgeTargets[edgeIndex] >= 0;
 	}
 
 	public double getMaxAttribute() {return maxAttribute;}
@@ -214,11 +319,13 @@ public class DistanceMatrix {
 
 	public void setEdgeCutOff(Double edgeCutOff) { 
 		matrix = null;
+		rowStart = null;
 		this.edgeCutOff = edgeCutOff.doubleValue(); 
 	}
 
 	public void	setUndirectedEdges(boolean undirectedEdges) { 
 		matrix = null;
+		rowStart = null;
 		this.unDirectedEdges = undirectedEdges; 
 	}
 
@@ -319,69 +426,62 @@ public class DistanceMatrix {
 	}
 
 	/**
- 	 * Find the connected components in a matrix
+ 	 * Find the connected components in a matrix using union-find over the node
+ 	 * indices, with path compression and union by rank
  	 */
-  private class FindComponents implements IntIntDoubleFunction {
-    Map<CyNode,Integer> nodeToCluster;
-    Map<Integer, List<CyNode>> clusterMap;
-    int clusterNumber = 0;
-
-    public FindComponents(Map<Integer, List<CyNode>> cMap) {
-      clusterMap = cMap;
-      nodeToCluster = new HashMap<CyNode, Integer>();
-    }
+	private class FindComponents implements IntIntDoubleFunction {
+		int[] parent;
+		byte[] rank;
+		boolean[] connected;
+
+		public FindComponents(int nNodes) {
+			parent = new int[nNodes];
+			rank = new byte[nNodes];
+			connected = new boolean[nNodes];
+			for (int node = 0; node < nNodes; node++)
+				parent[node] = node;
+		}
 
-    public double apply(int row, int column, double value) {
+		public double apply(int row, int column, double value) {
 			// For the purposes of determining connected components, we can
 			// safely ignore self-edges
 			if (row == column) 
 				return value;
-      CyNode node1 = nodes.get(row);
-      CyNode node2 = nodes.get(column);
-      if (nodeToCluster.containsKey(node1)) {
-        if(!nodeToCluster.containsKey(node2)) {
-          addNodeToCluster(nodeToCluster.get(node1), node2);
-        } else {
-          combineClusters(nodeToCluster.get(node1), nodeToCluster.get(node2));
-				}
-      } else {
-        if (nodeToCluster.containsKey(node2)) {
-          addNodeToCluster(nodeToCluster.get(node2), node1);
-        } else {
-          createCluster(node1, node2);
-				}
-      }
-      return value;
-    }
-
-    private void addNodeToCluster(Integer cluster, CyNode node) {
-			// System.out.println("Adding "+node+" to cluster "+cluster);
-      List<CyNode> nodeList = clusterMap.get(cluster);
-      nodeList.add(node);
-      nodeToCluster.put(node, cluster);
-    }
-
-    private void createCluster(CyNode node1, CyNode node2) {
-			// System.out.println("Creating cluster "+clusterNumber+" with "+node1+" and "+node2);
-      List<CyNode> nodeList = new ArrayList<CyNode>();
-      clusterMap.put(clusterNumber, nodeList);
-      addNodeToCluster(clusterNumber, node1);
-      addNodeToCluster(clusterNumber, node2);
-      clusterNumber++;
-    }
-
-    private void combineClusters(Integer cluster1, Integer cluster2) {
-      if (cluster1.intValue() == cluster2.intValue())
-          return;
-			// System.out.println("Combining cluster "+cluster1+" and "+cluster2);
-      List<CyNode> list1 = clusterMap.get(cluster1);
-      List<CyNode> list2 = clusterMap.get(cluster2);
-      clusterMap.remove(cluster2);
-      for (CyNode node: list2) {
-        nodeToCluster.put(node, cluster1);
-      }
-      list1.addAll(list2);
-    }
-  }
+			connected[row] = true;
+			connected[column] = true;
+			union(row, column);
+			return value;
+		}
+
+		public boolean isConnected(int node) { return connected[node]; }
+
+		public int find(int node) {
+			int root = node;
+			while (parent[root] != root)
+				root = parent[root];
+			// Compress the path
+			while (parent[node] != root) {
+				int next = parent[node];
+				parent[node] = root;
+				node = next;
+			}
+			return root;
+		}
+
+		private void union(int node1, int node2) {
+			int root1 = find(node1);
+			int root2 = find(node2);
+			if (root1 == root2)
+				return;
+			if (rank[root1] < rank[root2]) {
+				parent[root1] = root2;
+			} else if (rank[root1] > rank[root2]) {
+				parent[root2] = root1;
+			} else {
+				parent[root2] = root1;
+				rank[root1]++;
+			}
+		}
+	}
 
 }
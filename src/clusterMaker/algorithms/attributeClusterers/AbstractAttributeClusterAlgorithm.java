@@ -38,6 +38,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.SplittableRandom;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
@@ -72,6 +73,7 @@ public abstract class AbstractAttributeClusterAlgorithm {
 	protected String weightAttributes[] = null;
 	protected int kMax = -1;
 	protected boolean initializeNearCenter = false;
+	protected long randomSeed = 0;
 	private Silhouettes[] silhouetteResults = null;
 
 	protected boolean adjustDiagonals = false;
@@ -80,6 +82,7 @@ public abstract class AbstractAttributeClusterAlgorithm {
 	protected boolean ignoreMissing = true;
 	protected boolean interimRun = false;
 	protected boolean selectedOnly = false;
+	protected boolean singlePrecision = false;
 	protected boolean zeroMissing = false;
 	protected boolean useSilhouette = false;
 	protected AbstractClusterAlgorithm clusterAlgorithm = null;
@@ -92,11 +95,13 @@ public abstract class AbstractAttributeClusterAlgorithm {
 	public void setSelectedOnly(boolean val) { selectedOnly = val; }
 	public void setAdjustDiagonals(boolean val) { adjustDiagonals = val; }
 	public void setZeroMissing(boolean val) { zeroMissing = val; }
+	public void setSinglePrecision(boolean val) { singlePrecision = val; }
 	public void setDebug(boolean val) { debug = val; }
 	public void setUseSilhouette(boolean val) { useSilhouette = val; }
 	public void setKMax(int val) { kMax = val; }
 	public void setClusterInterface(AbstractClusterAlgorithm alg) { clusterAlgorithm = alg; }
 	public void setInitializeNearCenter(boolean val) { initializeNearCenter = val; }
+	public void setRandomSeed(long val) { randomSeed = val; }
 
 	/**
  	 * This method is called by all of the attribute cluster algorithms to update the
@@ -174,6 +179,7 @@ public abstract class AbstractAttributeClusterAlgorithm {
 		String netID = Cytoscape.getCurrentNetwork().getIdentifier();
 
 		// Remove the attributes that are lingering
+		IncrementalClusterModel.clearModel(netID);
 		if (netAttr.hasAttribute(netID, ClusterMaker.ARRAY_ORDER_ATTRIBUTE))
 			netAttr.deleteAttribute(netID, ClusterMaker.ARRAY_ORDER_ATTRIBUTE);
 		if (netAttr.hasAttribute(netID, ClusterMaker.NODE_ORDER_ATTRIBUTE))
@@ -384,6 +390,14 @@ public abstract class AbstractAttributeClusterAlgorithm {
 		// System.out.println(Arrays.toString(rowOrder));
 		// Update the network attributes
 		updateAttributes(algorithm);
+
+		// Remember the medoids so that new nodes can be added without starting over
+		if (!matrix.isTransposed() && !matrix.isSymmetrical()) {
+			String netID = Cytoscape.getCurrentNetwork().getIdentifier();
+			IncrementalClusterModel.setModel(netID, 
+			    IncrementalClusterModel.partitionModel(algorithm, weightAttributes, matrix, metric,
+			                                           zeroMissing, nClusters, clusters));
+		}
 		
 		// FIXME For HOPACH, nClusters is determined by the algorithm, and is neither estimated nor predefined... 
 
@@ -399,15 +413,6 @@ public abstract class AbstractAttributeClusterAlgorithm {
 		return resultString;
 	}
 	
-	protected int[] chooseRandomElementsAsCenters(int nElements, int nClusters) {
-		int[] centers = new int[nClusters];
-
-		for (int i = 0; i < nClusters; i++) {
-			centers[i] = (int) Math.floor(Math.random() * nElements);
-		}
-		return centers;
-	}
-
 	protected int[] chooseCentralElementsAsCenters(int nElements, int nClusters, double[][] distances) {
 		int[] centers = new int[nClusters];
 		
@@ -450,6 +455,16 @@ public abstract class AbstractAttributeClusterAlgorithm {
 		return centers;
 	}
 
+	/**
+ 	 * Choose centers by k-medoids++ (distance-weighted) sampling.  Unlike
+ 	 * chooseCentralElementsAsCenters, this needs no extra n x n storage and
+ 	 * spreads the centers out.
+ 	 */
+	protected int[] chooseDistanceWeightedElementsAsCenters(int nClusters, DistanceMatrix distances, 
+	                                                       SplittableRandom random) {
+		return KMedoidsSeeding.chooseCenters(distances, nClusters, random);
+	}
+
 	private void renumberClusters(int nClusters, int [] clusters) {
 		int[] clusterSizes = new int[nClusters];
 		Arrays.fill(clusterSizes, 0);
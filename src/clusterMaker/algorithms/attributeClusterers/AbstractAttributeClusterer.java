@@ -63,6 +63,7 @@ public abstract class AbstractAttributeClusterer extends AbstractClusterAlgorith
 	protected boolean selectedOnly = false;
 	protected boolean adjustDiagonals = false;
 	protected boolean zeroMissing = false;
+	protected boolean singlePrecision = false;
 	protected boolean useSilhouette = false;
 	protected boolean initializeNearCenter = false;
 	protected int kMax = 0;
@@ -134,9 +135,9 @@ public abstract class AbstractAttributeClusterer extends AbstractClusterAlgorith
 		if (useSilhouette) t.setImmutable(true);
 		clusterProperties.add(t);
 
-		// Whether to initialize cluster centers by choosing the most central elements
+		// Whether to initialize cluster centers by sampling spread-out elements (k-medoids++)
 		clusterProperties.add(new Tunable("initializeNearCenter",
-				                          "Initialize cluster centers from most central elements",
+				                          "Initialize cluster centers by distance-weighted sampling (k-medoids++)",
 				                          Tunable.BOOLEAN, new Boolean(initializeNearCenter)));
 	}
 
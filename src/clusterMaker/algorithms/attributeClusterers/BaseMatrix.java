@@ -31,9 +31,14 @@
  */
 package clusterMaker.algorithms.attributeClusterers;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *  BaseMatrix is a basic numeric matrix.
@@ -51,6 +56,17 @@ public class BaseMatrix {
 	
 	protected boolean transpose;
 	protected boolean symmetrical;
+
+	// Per-row sums used by the correlation metrics, computed the first time
+	// a row is needed and dropped when the row changes
+	private volatile RowStatistics[] rowStatistics = null;
+
+	// Rank vectors for Spearman's rank correlation, filled in the same way
+	private volatile double[][] rowRanks = null;
+
+	// Columns of each row in value order, for Kendall's tau
+	private volatile int[][] rowOrders = null;
+	private static final int[] UNORDERED = new int[0];
 	
 	/**
  	 * Make this array public so it can be reused
@@ -136,10 +152,12 @@ public class BaseMatrix {
 	
 	public void setValue(int row, int column, double value) {
 		matrix[row][column] = new Double(value);
+		invalidateRow(row);
 	}
 
 	public void setValue(int row, int column, Double value) {
 		matrix[row][column] = value;
+		invalidateRow(row);
 	}
 
 	public boolean hasValue(int row, int column) {
@@ -155,6 +173,7 @@ public class BaseMatrix {
 		}
 		Arrays.fill(this.colWeights,1.0);
 		Arrays.fill(this.rowWeights,1.0);
+		invalidateRows();
 	}
 	
 	public double[] getRowWeights() {
@@ -189,6 +208,7 @@ public class BaseMatrix {
 			colWeights = new double[nColumns];
 		}
 		colWeights[col] = value;
+		invalidateRows();
 	}
 	
 	public String[] getColLabels() {
@@ -241,6 +261,30 @@ public class BaseMatrix {
 		if (nVals == 0)
 			return null;
 
+		// Sort a copy of the data.  Adding 0.0 turns -0.0 into 0.0 so the two
+		// tie, as they do when compared with <.  NaNs don't compare at all, so
+		// rows with NaN get ranked by the original index sort.
+		double[] sorted = new double[nVals];
+		for (int i = 0; i < nVals; i++) {
+			if (Double.isNaN(tData[i]))
+				return getIndexSortRank(tData, nVals);
+			tData[i] += 0.0;
+			sorted[i] = tData[i];
+		}
+		Arrays.sort(sorted);
+
+		// Each value gets the average of the positions of its ties
+		double[] rank = new double[nVals];
+		for (int i = 0; i < nVals; i++) {
+			int first = lowerBound(sorted, tData[i]);
+			int last = first+1;
+			while (last < nVals && sorted[last] == tData[i]) last++;
+			rank[i] = first + (last-first-1)/2.0;
+		}
+		return rank;
+	}
+
+	private double[] getIndexSortRank(double[] tData, int nVals) {
 		// Sort the data
 		Integer index[] = indexSort(tData,nVals);
 
@@ -263,10 +307,119 @@ public class BaseMatrix {
 		return rank;
 	}
 
+	// Index of the first entry in sorted that is not less than value
+	private static int lowerBound(double[] sorted, double value) {
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			int mid = (low+high) >>> 1;
+			if (sorted[mid] < value)
+				low = mid+1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+ 	 * Return the rank vector of a row, as getRank would, but from a cache that
+ 	 * is filled for all rows (in parallel) the first time it's needed.  Rows
+ 	 * are recomputed individually after they change.  The returned array must
+ 	 * not be modified.
+ 	 */
+	double[] getCachedRank(int row) {
+		double[][] ranks = rowRanks;
+		if (ranks == null)
+			ranks = computeRanks();
+		double[] rank = ranks[row];
+		if (rank == null) {
+			rank = getRank(row);
+			ranks[row] = rank;
+		}
+		return rank;
+	}
+
+	private synchronized double[][] computeRanks() {
+		if (rowRanks != null)
+			return rowRanks;
+
+		final double[][] ranks = new double[matrix.length][];
+		final int rows = Math.min(nRows, matrix.length);
+		int nThreads = Math.min(Runtime.getRuntime().availableProcessors(), Math.max(1, rows/64));
+		if (nThreads <= 1) {
+			for (int row = 0; row < rows; row++)
+				ranks[row] = getRank(row);
+		} else {
+			final AtomicInteger nextRow = new AtomicInteger(0);
+			ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
+			List<Future<?>> results = new ArrayList<Future<?>>();
+			for (int thread = 0; thread < nThreads; thread++) {
+				results.add(threadPool.submit(new Runnable() {
+					public void run() {
+						int row;
+						while ((row = nextRow.getAndIncrement()) < rows)
+							ranks[row] = getRank(row);
+					}
+				}));
+			}
+			threadPool.shutdown();
+			try {
+				for (Future<?> result: results)
+					result.get();
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+		rowRanks = ranks;
+		return ranks;
+	}
+
+	/**
+ 	 * Return the columns of a row that have values, sorted by value (ties are
+ 	 * kept in column order).  Rows that contain NaN values can't be ordered, so
+ 	 * we return null for those.  The returned array must not be modified.
+ 	 */
+	int[] getCachedOrder(int row) {
+		int[][] orders = rowOrders;
+		if (orders == null) {
+			orders = new int[matrix.length][];
+			rowOrders = orders;
+		}
+		int[] order = orders[row];
+		if (order == null) {
+			order = getOrder(row);
+			orders[row] = order;
+		}
+		return order == UNORDERED ? null : order;
+	}
+
+	private int[] getOrder(int row) {
+		double[] values = new double[nColumns];
+		int[] columns = new int[nColumns];
+		int nVals = 0;
+		for (int column = 0; column < nColumns; column++) {
+			if (!hasValue(row, column))
+				continue;
+			double value = doubleValue(row, column);
+			if (Double.isNaN(value))
+				return UNORDERED;
+			values[nVals] = value;
+			columns[nVals++] = column;
+		}
+		Integer index[] = indexSort(values, nVals);
+		int[] order = new int[nVals];
+		for (int i = 0; i < nVals; i++)
+			order[i] = columns[index[i].intValue()];
+		return order;
+	}
+
 	public double[][] getDistanceMatrix(DistanceMetric metric) {
 		double[][] result = new double[this.nRows][this.nRows];
+		boolean[] blocked = computeBlockedDistances(metric, result, null);
 		for (int row = 0; row < this.nRows; row++) {
 			for (int column = row; column < this.nRows; column++) {
+				if (blocked[row] && blocked[column])
+					continue;
 				result[row][column] = 
 				   metric.getMetric(this, this, this.getWeights(), row, column);
 				if (row != column)
@@ -277,6 +430,91 @@ public class BaseMatrix {
 		return result;
 	}
 
+	/**
+ 	 * Return the distance matrix rounded to single precision, which takes half
+ 	 * the memory.  The distances are computed in double precision, so each
+ 	 * entry is the nearest float to the corresponding getDistanceMatrix entry.
+ 	 *
+ 	 * @param metric the distance metric to use
+ 	 * @return the (symmetrical) distance matrix
+ 	 */
+	public float[][] getFloatDistanceMatrix(DistanceMetric metric) {
+		float[][] result = new float[this.nRows][this.nRows];
+		boolean[] blocked = computeBlockedDistances(metric, null, result);
+		for (int row = 0; row < this.nRows; row++) {
+			for (int column = row; column < this.nRows; column++) {
+				if (blocked[row] && blocked[column])
+					continue;
+				result[row][column] = 
+				   (float)metric.getMetric(this, this, this.getWeights(), row, column);
+				if (row != column)
+					result[column][row] = result[row][column];
+			}
+		}
+		return result;
+	}
+
+	/**
+ 	 * Compute a single row of the distance matrix.  Each entry is computed
+ 	 * with the lower index first, as getDistanceMatrix does, so the rows are
+ 	 * symmetrical and match the full matrix exactly.
+ 	 *
+ 	 * @param metric the distance metric to use
+ 	 * @param row the row we want the distances for
+ 	 * @param result where to put the distances (at least nRows long)
+ 	 */
+	public void getDistanceRow(DistanceMetric metric, int row, double[] result) {
+		double[] weights = this.getWeights();
+		for (int column = 0; column < this.nRows; column++) {
+			if (column < row)
+				result[column] = metric.getMetric(this, this, weights, column, row);
+			else
+				result[column] = metric.getMetric(this, this, weights, row, column);
+		}
+	}
+
+	/*
+	 * Complete rows can be done a tile at a time, which leaves only the
+	 * pairs involving a row with missing values.  Returns the rows that
+	 * were done.
+	 */
+	private boolean[] computeBlockedDistances(DistanceMetric metric, double[][] result, 
+	                                          float[][] floatResult) {
+		boolean[] blocked = new boolean[this.nRows];
+		BlockedDistanceEngine engine = getBlockedDistanceEngine(metric);
+		if (engine == null)
+			return blocked;
+
+		if (floatResult != null)
+			engine.computeDistances(floatResult);
+		else
+			engine.computeDistances(result);
+		for (int row = 0; row < this.nRows; row++)
+			blocked[row] = engine.isComplete(row);
+		return blocked;
+	}
+
+	/**
+ 	 * Return an engine for the distances between the complete rows of this
+ 	 * matrix, or null if the metric isn't supported or there aren't at least
+ 	 * two complete rows
+ 	 */
+	BlockedDistanceEngine getBlockedDistanceEngine(DistanceMetric metric) {
+		if (!BlockedDistanceEngine.supports(metric))
+			return null;
+
+		int[] complete = new int[this.nRows];
+		int nComplete = 0;
+		for (int row = 0; row < this.nRows; row++) {
+			if (getRowStatistics(row, this.getWeights()).complete)
+				complete[nComplete++] = row;
+		}
+		if (nComplete < 2)
+			return null;
+
+		return new BlockedDistanceEngine(this, metric, complete, nComplete);
+	}
+
 	public void printMatrix() {
 		for (int col = 0; col < nColumns; col++)
 			System.out.print("\t"+columnLabels[col]);
@@ -321,12 +559,98 @@ public class BaseMatrix {
 					matrix[row][col] = new Double(0.0);
 			}
 		}
+		invalidateRows();
 	}
 	
 	public void adjustDiagonals() {
 		for (int col = 0; col < nColumns; col++ ) {
 			matrix[col][col] = new Double(maxAttribute);
 		}
+		invalidateRows();
+	}
+
+	/**
+ 	 * Return the weighted sum and sum of squares of a row.  These are computed
+ 	 * the first time they are needed for a row and kept until the row or the
+ 	 * weights change.
+ 	 *
+ 	 * @param row the row we want the statistics for
+ 	 * @param weights the column weights to use
+ 	 * @return the statistics for the row
+ 	 */
+	RowStatistics getRowStatistics(int row, double[] weights) {
+		RowStatistics[] statistics = rowStatistics;
+		if (statistics == null) {
+			statistics = new RowStatistics[matrix.length];
+			rowStatistics = statistics;
+		}
+		RowStatistics stats = statistics[row];
+		if (stats == null || stats.weights != weights) {
+			stats = new RowStatistics(row, weights);
+			statistics[row] = stats;
+		}
+		return stats;
+	}
+
+	/**
+ 	 * Drop anything we've computed for a row
+ 	 */
+	protected void invalidateRow(int row) {
+		RowStatistics[] statistics = rowStatistics;
+		if (statistics != null)
+			statistics[row] = null;
+		double[][] ranks = rowRanks;
+		if (ranks != null)
+			ranks[row] = null;
+		int[][] orders = rowOrders;
+		if (orders != null)
+			orders[row] = null;
+	}
+
+	/**
+ 	 * Drop anything we've computed for any row
+ 	 */
+	protected void invalidateRows() {
+		rowStatistics = null;
+		rowRanks = null;
+		rowOrders = null;
+	}
+
+	/**
+ 	 * The weighted sum and sum of squares of a row.  The sums are accumulated
+ 	 * in column order, exactly as the correlation metrics do, so using them
+ 	 * gives the same results as summing over the row each time.  They are only
+ 	 * meaningful when the row is complete (has no missing values).
+ 	 */
+	class RowStatistics {
+		final double[] weights;
+		final boolean complete;
+		final double sum;
+		final double sumOfSquares;
+		final double totalWeight;
+
+		RowStatistics(int row, double[] weights) {
+			this.weights = weights;
+			boolean complete = true;
+			double sum = 0.0;
+			double sumOfSquares = 0.0;
+			double totalWeight = 0.0;
+			for (int i = 0; i < nColumns; i++) {
+				if (!hasValue(row, i)) {
+					complete = false;
+					break;
+				}
+				double term = doubleValue(row, i);
+				double w = weights[i];
+				sum += w*term;
+				sumOfSquares += w*term*term;
+				totalWeight += w;
+			}
+			this.complete = complete;
+			this.sum = sum;
+			this.sumOfSquares = sumOfSquares;
+			this.totalWeight = totalWeight;
+		}
 	}
 	
 	private class IndexComparator implements Comparator<Integer> {
@@ -0,0 +1,283 @@
+/**
+ * Copyright (c) 2008 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions, and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions, and the following
+ *      disclaimer in the documentation and/or other materials provided
+ *      with the distribution.
+ *   3. Redistributions must acknowledge that this software was
+ *      originally developed by the UCSF Computer Graphics Laboratory
+ *      under support by the NIH National Center for Research Resources,
+ *      grant P41-RR01081.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE REGENTS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package clusterMaker.algorithms.attributeClusterers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BlockedDistanceEngine computes the distances between all of the complete
+ * rows (rows without missing values) of a matrix a tile at a time.  For the
+ * correlation metrics, each tile is a block of the weighted Gram matrix
+ * (the dot products of every pair of rows), which is turned into distances
+ * using each row's cached sums.  For Euclidean distance, each tile is a block
+ * of weighted sums of squared differences.  Tiles are split up between threads,
+ * and the columns are walked in blocks so a pair of row tiles stays in cache.
+ *
+ * Each sum is accumulated in column order, just as the pairwise kernels in
+ * DistanceMetric do, so the distances are identical to computing them one
+ * pair at a time.  Pairs that involve a row with missing values are left to
+ * the caller.
+ */
+class BlockedDistanceEngine {
+	static final int TILE_SIZE = 64;
+	static final int DEPTH = 256;
+
+	private final BaseMatrix matrix;
+	private final DistanceMetric metric;
+	private final double[] weights;
+	private final int nColumns;
+
+	// The complete rows, their values, and their values multiplied by the weights
+	private final int[] rows;
+	private final double[][] values;
+	private final double[][] weighted;
+	private final BaseMatrix.RowStatistics[] statistics;
+	// where each matrix row is in rows, or -1 if it isn't complete
+	private final int[] positions;
+
+	/**
+ 	 * Set up to compute the distances between the complete rows of a matrix
+ 	 *
+ 	 * @param matrix the matrix we're computing the distances for
+ 	 * @param metric the distance metric, which must be supported
+ 	 * @param complete the rows (in ascending order) that have no missing values
+ 	 * @param nComplete the number of complete rows
+ 	 */
+	BlockedDistanceEngine(BaseMatrix matrix, DistanceMetric metric, int[] complete, int nComplete) {
+		this.matrix = matrix;
+		this.metric = metric;
+		this.weights = matrix.getWeights();
+		this.nColumns = matrix.nColumns();
+		this.rows = new int[nComplete];
+		this.values = new double[nComplete][];
+		this.weighted = metric == DistanceMetric.EUCLIDEAN ? null : new double[nComplete][];
+		this.statistics = new BaseMatrix.RowStatistics[nComplete];
+		this.positions = new int[matrix.nRows()];
+		Arrays.fill(positions, -1);
+
+		for (int i = 0; i < nComplete; i++) {
+			int row = complete[i];
+			rows[i] = row;
+			positions[row] = i;
+			statistics[i] = matrix.getRowStatistics(row, weights);
+			double[] rowValues = new double[nColumns];
+			for (int column = 0; column < nColumns; column++)
+				rowValues[column] = matrix.doubleValue(row, column);
+			values[i] = rowValues;
+			if (weighted != null) {
+				double[] rowWeighted = new double[nColumns];
+				for (int column = 0; column < nColumns; column++)
+					rowWeighted[column] = weights[column]*rowValues[column];
+				weighted[i] = rowWeighted;
+			}
+		}
+	}
+
+	/**
+ 	 * Return true if we can compute this metric a tile at a time
+ 	 */
+	static boolean supports(DistanceMetric metric) {
+		switch (metric) {
+			case EUCLIDEAN:
+			case CORRELATION:
+			case ABS_CORRELATION:
+			case UNCENTERED_CORRELATION:
+			case ABS_UNCENTERED_CORRELATION:
+				return true;
+		}
+		return false;
+	}
+
+	/**
+ 	 * Fill in the distances between every pair of complete rows (in both
+ 	 * directions)
+ 	 *
+ 	 * @param result the full distance matrix
+ 	 */
+	void computeDistances(double[][] result) {
+		computeDistances(result, null);
+	}
+
+	/**
+ 	 * Fill in the distances between every pair of complete rows (in both
+ 	 * directions), rounded to single precision
+ 	 *
+ 	 * @param result the full distance matrix
+ 	 */
+	void computeDistances(float[][] result) {
+		computeDistances(null, result);
+	}
+
+	private void computeDistances(final double[][] result, final float[][] floatResult) {
+		int nTiles = (rows.length+TILE_SIZE-1)/TILE_SIZE;
+		final int[] tileRows = new int[nTiles*(nTiles+1)/2];
+		final int[] tileColumns = new int[tileRows.length];
+		int tile = 0;
+		for (int tileRow = 0; tileRow < nTiles; tileRow++) {
+			for (int tileColumn = tileRow; tileColumn < nTiles; tileColumn++) {
+				tileRows[tile] = tileRow;
+				tileColumns[tile++] = tileColumn;
+			}
+		}
+
+		int nThreads = Math.min(Runtime.getRuntime().availableProcessors(), tileRows.length);
+		if (nThreads <= 1) {
+			double[][] sums = new double[TILE_SIZE][TILE_SIZE];
+			for (tile = 0; tile < tileRows.length; tile++)
+				computeTile(tileRows[tile]*TILE_SIZE, tileColumns[tile]*TILE_SIZE, sums, result, floatResult);
+			return;
+		}
+
+		final AtomicInteger nextTile = new AtomicInteger(0);
+		ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for (int thread = 0; thread < nThreads; thread++) {
+			results.add(threadPool.submit(new Runnable() {
+				public void run() {
+					double[][] sums = new double[TILE_SIZE][TILE_SIZE];
+					int tile;
+					while ((tile = nextTile.getAndIncrement()) < tileRows.length)
+						computeTile(tileRows[tile]*TILE_SIZE, tileColumns[tile]*TILE_SIZE, sums, result, floatResult);
+				}
+			}));
+		}
+		threadPool.shutdown();
+		try {
+			for (Future<?> future: results)
+				future.get();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+ 	 * Return true if this row is one of the complete rows
+ 	 */
+	boolean isComplete(int row) {
+		return positions[row] >= 0;
+	}
+
+	/**
+ 	 * Fill in the distances from one complete row to every complete row.  The
+ 	 * entries for the other rows are left alone.
+ 	 *
+ 	 * @param row the (complete) row we want the distances for
+ 	 * @param result where to put the distances, indexed by row
+ 	 */
+	void computeRow(int row, double[] result) {
+		int p = positions[row];
+		for (int q = 0; q < rows.length; q++) {
+			// the lower row is always the first argument, as in the tiles
+			int first = Math.min(p, q);
+			int second = Math.max(p, q);
+			double sum = 0.0;
+			if (weighted != null) {
+				double[] a = weighted[first];
+				double[] b = values[second];
+				for (int k = 0; k < nColumns; k++)
+					sum += a[k]*b[k];
+			} else {
+				double[] a = values[first];
+				double[] b = values[second];
+				for (int k = 0; k < nColumns; k++) {
+					double term = a[k] - b[k];
+					sum += weights[k]*term*term;
+				}
+			}
+			result[rows[q]] = metric.getBlockedMetric(matrix, statistics[first], statistics[second], sum);
+		}
+	}
+
+	private void computeTile(int firstRow, int firstColumn, double[][] sums, 
+	                         double[][] result, float[][] floatResult) {
+		int lastRow = Math.min(firstRow+TILE_SIZE, rows.length);
+		int lastColumn = Math.min(firstColumn+TILE_SIZE, rows.length);
+		boolean diagonal = firstRow == firstColumn;
+
+		for (int i = firstRow; i < lastRow; i++) {
+			double[] tileSums = sums[i-firstRow];
+			for (int j = firstColumn; j < lastColumn; j++)
+				tileSums[j-firstColumn] = 0.0;
+		}
+
+		for (int start = 0; start < nColumns; start += DEPTH) {
+			int end = Math.min(start+DEPTH, nColumns);
+			for (int i = firstRow; i < lastRow; i++) {
+				double[] tileSums = sums[i-firstRow];
+				int first = diagonal ? i : firstColumn;
+				if (weighted != null) {
+					double[] a = weighted[i];
+					for (int j = first; j < lastColumn; j++) {
+						double[] b = values[j];
+						double sum = tileSums[j-firstColumn];
+						for (int k = start; k < end; k++)
+							sum += a[k]*b[k];
+						tileSums[j-firstColumn] = sum;
+					}
+				} else {
+					double[] a = values[i];
+					for (int j = first; j < lastColumn; j++) {
+						double[] b = values[j];
+						double sum = tileSums[j-firstColumn];
+						for (int k = start; k < end; k++) {
+							double term = a[k] - b[k];
+							sum += weights[k]*term*term;
+						}
+						tileSums[j-firstColumn] = sum;
+					}
+				}
+			}
+		}
+
+		for (int i = firstRow; i < lastRow; i++) {
+			double[] tileSums = sums[i-firstRow];
+			int first = diagonal ? i : firstColumn;
+			for (int j = first; j < lastColumn; j++) {
+				double distance = metric.getBlockedMetric(matrix, statistics[i], statistics[j], 
+				                                          tileSums[j-firstColumn]);
+				if (floatResult != null) {
+					floatResult[rows[i]][rows[j]] = (float)distance;
+					floatResult[rows[j]][rows[i]] = (float)distance;
+				} else {
+					result[rows[i]][rows[j]] = distance;
+					result[rows[j]][rows[i]] = distance;
+				}
+			}
+		}
+	}
+}
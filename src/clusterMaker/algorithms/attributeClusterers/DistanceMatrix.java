@@ -12,6 +12,8 @@ import clusterMaker.algorithms.attributeClusterers.DistanceMetric;
  */
 public class DistanceMatrix {
 	protected double matrix[][];
+	// used instead of matrix when the distances are kept in single precision
+	protected float floatMatrix[][];
 	protected DistanceMetric metric;
 	// index array (for efficient subsetting/permuting/bootstrapping)
 	protected int[] idx;
@@ -26,27 +28,55 @@ public class DistanceMatrix {
 	 * @param metric distance metric
 	 */
 	public DistanceMatrix(BaseMatrix data, DistanceMetric metric, int[] idx) {
-		this.matrix = data.getDistanceMatrix(metric);
+		this(data, metric, idx, false);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param data matrix of data
+	 * @param metric distance metric
+	 * @param idx index array, or null for all of the data elements
+	 * @param singlePrecision store the distances as floats, which halves the memory
+	 */
+	public DistanceMatrix(BaseMatrix data, DistanceMetric metric, int[] idx, boolean singlePrecision) {
+		if (singlePrecision) {
+			this.floatMatrix = data.getFloatDistanceMatrix(metric);
+		} else {
+			this.matrix = data.getDistanceMatrix(metric);
+		}
 		this.metric = metric;
 		
 		if (idx == null) {
 			// initialize indexing array to original order
-			idx = new int[matrix.length];
-			for (int i = 0; i < matrix.length; ++i) {
+			int n = data.nRows();
+			idx = new int[n];
+			for (int i = 0; i < n; ++i) {
 				idx[i] = i;
 			}
 		}
 		this.idx = idx;
 	}
 	
+	/**
+	 * Constructor. For subclasses that provide the distances themselves.
+	 * @param metric metric
+	 * @param idx index array
+	 */
+	protected DistanceMatrix(DistanceMetric metric, int[] idx) {
+		this.metric = metric;
+		this.idx = idx;
+	}
+	
 	/**
 	 * Constructor. For use by DistanceMatrix.subset(.)
 	 * @param matrix distance matrix
+	 * @param floatMatrix single precision distance matrix (if matrix is null)
 	 * @param metric metric
 	 * @param idx index array
 	 */
-	private DistanceMatrix(double[][] matrix, DistanceMetric metric, int[] idx) {
+	private DistanceMatrix(double[][] matrix, float[][] floatMatrix, DistanceMetric metric, int[] idx) {
 		this.matrix = matrix;
+		this.floatMatrix = floatMatrix;
 		this.metric = metric;
 		this.idx = idx;
 	}
@@ -58,6 +88,9 @@ public class DistanceMatrix {
 	 * @return value at position
 	 */
 	public double getValue(int i, int j) {
+		if (matrix == null) {
+			return floatMatrix[ idx[i] ][ idx[j] ];
+		}
 		return matrix[ idx[i] ][ idx[j] ];
 	}
 	
@@ -68,7 +101,22 @@ public class DistanceMatrix {
 	 */
 	public DistanceMatrix subset(int[] idx) {
 		// copy reference to matrix and metric, and use new index array
-		return new DistanceMatrix(this.matrix, this.metric, idx);
+		return new DistanceMatrix(this.matrix, this.floatMatrix, this.metric, idx);
+	}
+
+	/**
+	 * Hint that row i will be used often, until unpinRow(i) is called.
+	 * Every row is already stored here, so this does nothing.
+	 * @param i row index
+	 */
+	public void pinRow(int i) {
+	}
+	
+	/**
+	 * Release a pin taken by pinRow(i).
+	 * @param i row index
+	 */
+	public void unpinRow(int i) {
 	}
 
 	/**
@@ -79,6 +127,14 @@ public class DistanceMatrix {
 		return idx.length;
 	}
 	
+	/**
+	 * Whether the distances are stored in single precision.
+	 * @return true if the distances are floats
+	 */
+	public boolean isSinglePrecision() {
+		return matrix == null;
+	}
+	
 	/**
 	 * Getter for distance metric.
 	 * @return distance metric
@@ -0,0 +1,390 @@
+/**
+ * Copyright (c) 2008 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions, and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions, and the following
+ *      disclaimer in the documentation and/or other materials provided
+ *      with the distribution.
+ *   3. Redistributions must acknowledge that this software was
+ *      originally developed by the UCSF Computer Graphics Laboratory
+ *      under support by the NIH National Center for Research Resources,
+ *      grant P41-RR01081.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE REGENTS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package clusterMaker.algorithms.attributeClusterers;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cytoscape.CyNetwork;
+import cytoscape.Cytoscape;
+import cytoscape.data.attr.MultiHashMapListener;
+
+/**
+ * DistanceMatrixService keeps the distance matrix from the last clustering of
+ * each network, so that clustering the same data again doesn't have to start
+ * from scratch.  It listens for changes to node attributes, and when some of
+ * the clustered nodes' values change, only the rows and columns for those
+ * nodes are recomputed (in parallel).  Adding or removing nodes, or changing
+ * the attributes, metric, precision or options, still means computing the
+ * whole matrix.
+ *
+ * Keeping a matrix around costs as much memory as the matrix itself, so this
+ * is only used when asked for.  A network's matrix is dropped when the network
+ * is destroyed, and the listeners are removed once no matrices are left.
+ *
+ * A run calls beginRun before it reads the attribute values, and
+ * getDistanceMatrix once it has them.  Nodes that change in between are
+ * recomputed on the next run, so a matrix can't stay stale.
+ *
+ * Snapshots share the kept matrix rather than copying it.  A caller that
+ * modifies the distances asks for its own copy; one that only reads them
+ * releases the snapshot when it's done.  If the matrix has to be updated
+ * while a snapshot is still out, the service copies it first (copy-on-write),
+ * so a running algorithm always sees a consistent version.
+ */
+public class DistanceMatrixService implements MultiHashMapListener, PropertyChangeListener {
+	private static DistanceMatrixService service = null;
+
+	// The last matrix for each network
+	private Map<String, Entry> entries;
+
+	private DistanceMatrixService() {
+		entries = new HashMap<String, Entry>();
+	}
+
+	public static synchronized DistanceMatrixService getService() {
+		if (service == null) {
+			service = new DistanceMatrixService();
+			Cytoscape.getNodeAttributes().getMultiHashMap().addDataListener(service);
+			Cytoscape.getPropertyChangeSupport().addPropertyChangeListener(Cytoscape.NETWORK_DESTROYED, service);
+		}
+		return service;
+	}
+
+	/**
+ 	 * Forget all of the matrices, and stop listening for changes.
+ 	 */
+	public static synchronized void clearAll() {
+		if (service == null) return;
+		Cytoscape.getNodeAttributes().getMultiHashMap().removeDataListener(service);
+		Cytoscape.getPropertyChangeSupport().removePropertyChangeListener(Cytoscape.NETWORK_DESTROYED, service);
+		service = null;
+	}
+
+	/**
+ 	 * Forget the matrix for a network
+ 	 */
+	public static synchronized void clear(String netID) {
+		if (service == null) return;
+		synchronized (service) {
+			service.entries.remove(netID);
+			if (!service.entries.isEmpty()) return;
+		}
+		clearAll();
+	}
+
+	/**
+ 	 * Start a run on a network.  This must be called before the attribute
+ 	 * values are read into the matrix: any node that changes after this is
+ 	 * recomputed on the next run, even if this run already saw the change.
+ 	 *
+ 	 * @param netID the network we're about to cluster
+ 	 * @param attributes the node attributes we'll read
+ 	 */
+	public synchronized void beginRun(String netID, String[] attributes) {
+		Set<String> attributeSet = new HashSet<String>(Arrays.asList(attributes));
+		Entry entry = entries.get(netID);
+		if (entry == null || !entry.attributes.equals(attributeSet)) {
+			entry = new Entry(attributeSet);
+			entries.put(netID, entry);
+		}
+		entry.runChanges.addAll(entry.dirtyNodes);
+		entry.dirtyNodes = new HashSet<String>();
+	}
+
+	/**
+ 	 * Return the distance matrix for a matrix built from node attributes,
+ 	 * reusing as much of the last matrix for this network as we can.  The
+ 	 * distances are the same as matrix.getDistanceMatrix(metric), or
+ 	 * matrix.getFloatDistanceMatrix(metric) in single precision.
+ 	 *
+ 	 * @param netID the network the matrix was built from (after beginRun)
+ 	 * @param options anything else that affects the values (e.g. "zeroMissing")
+ 	 * @param matrix the (non-transposed) matrix
+ 	 * @param metric the distance metric
+ 	 * @param singlePrecision keep the distances as floats
+ 	 * @return a snapshot of the distances, which must be released or copied
+ 	 */
+	public Snapshot getDistanceMatrix(String netID, String options, BaseMatrix matrix, 
+	                                  DistanceMetric metric, boolean singlePrecision) {
+		String key = metric+"|"+options+"|"+singlePrecision;
+		String[] rowLabels = matrix.getRowLabels();
+		double[] weights = matrix.getWeights();
+
+		Entry entry;
+		Set<String> changes;
+		synchronized (this) {
+			entry = entries.get(netID);
+			if (entry == null) {
+				// Nobody called beginRun, so we can't trust a kept matrix
+				entry = new Entry(new HashSet<String>());
+				entries.put(netID, entry);
+			}
+			changes = entry.runChanges;
+			entry.runChanges = new HashSet<String>();
+		}
+
+		synchronized (entry) {
+			if (!entry.matches(key, rowLabels, weights)) {
+				if (singlePrecision)
+					entry.set(key, rowLabels, weights, null, matrix.getFloatDistanceMatrix(metric));
+				else
+					entry.set(key, rowLabels, weights, matrix.getDistanceMatrix(metric), null);
+			} else if (changes.size() > 0) {
+				List<Integer> changed = new ArrayList<Integer>();
+				for (int row = 0; row < rowLabels.length; row++) {
+					if (changes.contains(rowLabels[row]))
+						changed.add(row);
+				}
+				if (changed.size() > 0)
+					entry.update(matrix, metric, changed);
+			}
+			return entry.getSnapshot();
+		}
+	}
+
+	private synchronized void valueChanged(String objectKey, String attributeName) {
+		for (Entry entry: entries.values()) {
+			if (entry.attributes.contains(attributeName))
+				entry.dirtyNodes.add(objectKey);
+		}
+	}
+
+	public void attributeValueAssigned(String objectKey, String attributeName,
+	                                   Object[] keyIntoValue, Object oldAttributeValue,
+	                                   Object newAttributeValue) {
+		valueChanged(objectKey, attributeName);
+	}
+
+	public void attributeValueRemoved(String objectKey, String attributeName,
+	                                  Object[] keyIntoValue, Object attributeValue) {
+		valueChanged(objectKey, attributeName);
+	}
+
+	public void allAttributeValuesRemoved(String objectKey, String attributeName) {
+		valueChanged(objectKey, attributeName);
+	}
+
+	public void propertyChange(PropertyChangeEvent evt) {
+		if (evt.getPropertyName() == Cytoscape.NETWORK_DESTROYED) {
+			Object network = evt.getNewValue();
+			if (network instanceof CyNetwork)
+				clear(((CyNetwork)network).getIdentifier());
+			else if (network != null)
+				clear(network.toString());
+		}
+	}
+
+	/**
+ 	 * A view of the kept distance matrix, and the version it was taken from.
+ 	 * Only one of getDistances and getFloatDistances is non-null, depending on
+ 	 * the precision that was asked for.
+ 	 */
+	public static class Snapshot {
+		private final Entry entry;
+		private final long version;
+		private final double[][] distances;
+		private final float[][] floatDistances;
+		private boolean released = false;
+
+		Snapshot(Entry entry, long version, double[][] distances, float[][] floatDistances) {
+			this.entry = entry;
+			this.version = version;
+			this.distances = distances;
+			this.floatDistances = floatDistances;
+		}
+
+		public long getVersion() { return version; }
+
+		/**
+ 		 * The shared distances.  These must not be modified.
+ 		 */
+		public double[][] getDistances() { return distances; }
+
+		public float[][] getFloatDistances() { return floatDistances; }
+
+		/**
+ 		 * Return a copy of the distances that the caller may modify, and
+ 		 * release the snapshot.
+ 		 */
+		public double[][] copyDistances() {
+			double[][] copy = null;
+			if (distances != null) {
+				copy = new double[distances.length][];
+				for (int row = 0; row < distances.length; row++)
+					copy[row] = distances[row].clone();
+			}
+			release();
+			return copy;
+		}
+
+		public float[][] copyFloatDistances() {
+			float[][] copy = null;
+			if (floatDistances != null) {
+				copy = new float[floatDistances.length][];
+				for (int row = 0; row < floatDistances.length; row++)
+					copy[row] = floatDistances[row].clone();
+			}
+			release();
+			return copy;
+		}
+
+		/**
+ 		 * Let the service update the matrix in place again.
+ 		 */
+		public void release() {
+			synchronized (entry) {
+				if (released) return;
+				released = true;
+				if (entry.distances == distances && entry.floatDistances == floatDistances)
+					entry.readers--;
+			}
+		}
+	}
+
+	/*
+	 * The distance matrix for one network
+	 */
+	private static class Entry {
+		final Set<String> attributes;
+		// Nodes changed since the last beginRun
+		Set<String> dirtyNodes = new HashSet<String>();
+		// Nodes changed before the current run started
+		Set<String> runChanges = new HashSet<String>();
+
+		String key = null;
+		String[] rowLabels = null;
+		double[] weights = null;
+		double[][] distances = null;
+		float[][] floatDistances = null;
+		long version = 0;
+		// Snapshots that are still reading the current arrays
+		int readers = 0;
+
+		Entry(Set<String> attributes) {
+			this.attributes = attributes;
+		}
+
+		boolean matches(String key, String[] rowLabels, double[] weights) {
+			return key.equals(this.key) && Arrays.equals(this.rowLabels, rowLabels) &&
+			       Arrays.equals(this.weights, weights);
+		}
+
+		void set(String key, String[] rowLabels, double[] weights, 
+		         double[][] distances, float[][] floatDistances) {
+			this.key = key;
+			this.rowLabels = rowLabels.clone();
+			this.weights = weights == null ? null : weights.clone();
+			this.distances = distances;
+			this.floatDistances = floatDistances;
+			this.readers = 0;
+			version++;
+		}
+
+		Snapshot getSnapshot() {
+			readers++;
+			return new Snapshot(this, version, distances, floatDistances);
+		}
+
+		/*
+		 * Recompute the rows (and columns) for the rows that changed
+		 */
+		void update(final BaseMatrix matrix, final DistanceMetric metric, final List<Integer> changed) {
+			// Snapshots are still reading this version, so update a copy
+			if (readers > 0) {
+				if (distances != null) {
+					double[][] copy = new double[distances.length][];
+					for (int row = 0; row < distances.length; row++)
+						copy[row] = distances[row].clone();
+					distances = copy;
+				} else {
+					float[][] copy = new float[floatDistances.length][];
+					for (int row = 0; row < floatDistances.length; row++)
+						copy[row] = floatDistances[row].clone();
+					floatDistances = copy;
+				}
+				readers = 0;
+			}
+
+			final int nRows = rowLabels.length;
+			int nThreads = Math.min(Runtime.getRuntime().availableProcessors(), changed.size());
+			final AtomicInteger next = new AtomicInteger(0);
+			Runnable task = new Runnable() {
+				public void run() {
+					double[] row = new double[nRows];
+					int index;
+					while ((index = next.getAndIncrement()) < changed.size()) {
+						int changedRow = changed.get(index);
+						matrix.getDistanceRow(metric, changedRow, row);
+						for (int column = 0; column < nRows; column++) {
+							if (distances != null) {
+								distances[changedRow][column] = row[column];
+								distances[column][changedRow] = row[column];
+							} else {
+								floatDistances[changedRow][column] = (float)row[column];
+								floatDistances[column][changedRow] = (float)row[column];
+							}
+						}
+					}
+				}
+			};
+
+			if (nThreads <= 1) {
+				task.run();
+			} else {
+				ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
+				List<Future<?>> results = new ArrayList<Future<?>>();
+				for (int thread = 0; thread < nThreads; thread++)
+					results.add(threadPool.submit(task));
+				threadPool.shutdown();
+				try {
+					for (Future<?> result: results)
+						result.get();
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+			version++;
+		}
+	}
+}
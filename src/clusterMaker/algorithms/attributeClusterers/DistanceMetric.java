@@ -32,6 +32,8 @@
 package clusterMaker.algorithms.attributeClusterers;
 
 import java.lang.Math;
+import java.util.HashMap;
+import java.util.Map;
 
 //FIXME EUCLIDEAN is actually EUCLIDEAN_SQUARED!!!
 
@@ -81,6 +83,29 @@ public enum DistanceMetric {
 		return euclidMetric(data1, data2, weights, index1, index2);
 	}
 
+	/*
+	 * Finish the distance between two complete rows from the sum computed by
+	 * BlockedDistanceEngine: the weighted dot product for the correlations, or
+	 * the weighted sum of squared differences for Euclidean distance
+	 */
+	double getBlockedMetric(BaseMatrix data, BaseMatrix.RowStatistics stats1, 
+	                        BaseMatrix.RowStatistics stats2, double sum) {
+		switch (this) {
+			case EUCLIDEAN:
+				if (stats1.totalWeight == 0.0) return 0;
+				return (sum/stats1.totalWeight);
+			case CORRELATION:
+				return centeredCorrelation(stats1, stats2, sum, false);
+			case ABS_CORRELATION:
+				return centeredCorrelation(stats1, stats2, sum, true);
+			case UNCENTERED_CORRELATION:
+				return uncenteredCorrelation(data, stats1, stats2, sum, false);
+			case ABS_UNCENTERED_CORRELATION:
+				return uncenteredCorrelation(data, stats1, stats2, sum, true);
+		}
+		throw new IllegalArgumentException(this+" can't be computed from a blocked sum");
+	}
+
 	// Distance metric calculations
 	private static double euclidMetric(BaseMatrix data1, BaseMatrix data2, double[] weights, 
 	                            int index1, int index2) {
@@ -114,6 +139,11 @@ public enum DistanceMetric {
 
 	private static double correlationMetric(BaseMatrix data1, BaseMatrix data2, double[] weights, 
 	                                        int index1, int index2) {
+		BaseMatrix.RowStatistics stats1 = data1.getRowStatistics(index1, weights);
+		BaseMatrix.RowStatistics stats2 = data2.getRowStatistics(index2, weights);
+		if (bothComplete(data1, data2, stats1, stats2))
+			return centeredCorrelation(stats1, stats2, dotProduct(data1, data2, weights, index1, index2), false);
+
 		double result = 0.0;
 		double sum1 = 0.0;
 		double sum2 = 0.0;
@@ -145,6 +175,11 @@ public enum DistanceMetric {
 
 	private static double acorrelationMetric(BaseMatrix data1, BaseMatrix data2, double[] weights, 
 	                                         int index1, int index2) {
+		BaseMatrix.RowStatistics stats1 = data1.getRowStatistics(index1, weights);
+		BaseMatrix.RowStatistics stats2 = data2.getRowStatistics(index2, weights);
+		if (bothComplete(data1, data2, stats1, stats2))
+			return centeredCorrelation(stats1, stats2, dotProduct(data1, data2, weights, index1, index2), true);
+
 		double result = 0.0;
 		double sum1 = 0.0;
 		double sum2 = 0.0;
@@ -176,6 +211,11 @@ public enum DistanceMetric {
 
 	private static double ucorrelationMetric(BaseMatrix data1, BaseMatrix data2, double[] weights, 
 	                                         int index1, int index2) {
+		BaseMatrix.RowStatistics stats1 = data1.getRowStatistics(index1, weights);
+		BaseMatrix.RowStatistics stats2 = data2.getRowStatistics(index2, weights);
+		if (bothComplete(data1, data2, stats1, stats2))
+			return uncenteredCorrelation(data1, stats1, stats2, dotProduct(data1, data2, weights, index1, index2), false);
+
 		double result = 0.0;
 		double denom1 = 0.0;
 		double denom2 = 0.0;
@@ -201,6 +241,11 @@ public enum DistanceMetric {
 
 	private static double uacorrelationMetric(BaseMatrix data1, BaseMatrix data2, double[] weights, 
 	                                          int index1, int index2) {
+		BaseMatrix.RowStatistics stats1 = data1.getRowStatistics(index1, weights);
+		BaseMatrix.RowStatistics stats2 = data2.getRowStatistics(index2, weights);
+		if (bothComplete(data1, data2, stats1, stats2))
+			return uncenteredCorrelation(data1, stats1, stats2, dotProduct(data1, data2, weights, index1, index2), true);
+
 		double result = 0.0;
 		double denom1 = 0.0;
 		double denom2 = 0.0;
@@ -224,13 +269,62 @@ public enum DistanceMetric {
 		return (1.0 - result);
 	}
 
+	/*
+	 * When neither row has missing values, the correlation metrics only need the
+	 * weighted dot product of the two rows -- the rest comes from each row's cached
+	 * sums.  The sums are accumulated in the same order as the full loops, so the
+	 * results are identical.
+	 */
+	private static boolean bothComplete(BaseMatrix data1, BaseMatrix data2,
+	                                    BaseMatrix.RowStatistics stats1, BaseMatrix.RowStatistics stats2) {
+		return stats1.complete && stats2.complete && data1.nColumns() == data2.nColumns();
+	}
+
+	private static double dotProduct(BaseMatrix data1, BaseMatrix data2, double[] weights, 
+	                                 int index1, int index2) {
+		double result = 0.0;
+		for (int i = 0; i < data1.nColumns(); i++) {
+			double term1 = data1.doubleValue(index1, i);
+			double term2 = data2.doubleValue(index2, i);
+			result += weights[i]*term1*term2;
+		}
+		return result;
+	}
+
+	private static double centeredCorrelation(BaseMatrix.RowStatistics stats1, BaseMatrix.RowStatistics stats2,
+	                                          double result, boolean absolute) {
+		double tweight = stats1.totalWeight;
+		if (tweight == 0.0) return 0;
+		double sum1 = stats1.sum;
+		double sum2 = stats2.sum;
+		result -= sum1 * sum2 / tweight;
+		double denom1 = stats1.sumOfSquares - sum1 * sum1 / tweight;
+		double denom2 = stats2.sumOfSquares - sum2 * sum2 / tweight;
+		if (denom1 <= 0) return 1;
+		if (denom2 <= 0) return 1;
+		if (absolute) result = Math.abs(result);
+		result = result / Math.sqrt(denom1*denom2);
+		return (1.0 - result);
+	}
+
+	private static double uncenteredCorrelation(BaseMatrix data1, BaseMatrix.RowStatistics stats1, 
+	                                            BaseMatrix.RowStatistics stats2, double result, 
+	                                            boolean absolute) {
+		if (data1.nColumns() == 0) return 0.0;
+		if (stats1.sumOfSquares == 0) return 1;
+		if (stats2.sumOfSquares == 0) return 1;
+		if (absolute) result = Math.abs(result);
+		result = result / Math.sqrt(stats1.sumOfSquares*stats2.sumOfSquares);
+		return (1.0 - result);
+	}
+
 	private static double spearmanMetric(BaseMatrix data1, BaseMatrix data2, double[] weights, 
 	                                     int index1, int index2) {
 		double result = 0.0;
 		double denom1 = 0.0;
 		double denom2 = 0.0;
-		double[] rank1 = data1.getRank(index1);
-		double[] rank2 = data2.getRank(index2);
+		double[] rank1 = data1.getCachedRank(index1);
+		double[] rank2 = data2.getCachedRank(index2);
 
 		if (rank1 == null || rank2 == null)
 			return 0.0;
@@ -258,6 +352,147 @@ public enum DistanceMetric {
 
 	private static double kendallMetric(BaseMatrix data1, BaseMatrix data2, double[] weights, 
 	                                    int index1, int index2) {
+		int[] order1 = data1.getCachedOrder(index1);
+		int[] order2 = data2.getCachedOrder(index2);
+		if (order1 == null || order2 == null || data1.nColumns() != data2.nColumns())
+			return kendallPairsMetric(data1, data2, weights, index1, index2);
+
+		// Only column j's values are checked in the pairwise version, so a pair
+		// (i, j) counts when j has both values even if i doesn't.  With no NaN
+		// values, a missing value compares unequal to everything, which leaves:
+		//  - pairs where both columns have both values: ordinary Kendall counts
+		//  - x missing at i: exy for each earlier complete j with y[j] == y[i]
+		//  - y missing at i: exx for each earlier complete j with x[j] == x[i]
+		int nColumns = data1.nColumns();
+		double[] x = new double[nColumns];
+		double[] y = new double[nColumns];
+		boolean[] both = new boolean[nColumns];
+		int nBoth = 0;
+		boolean flag = false;
+		for (int i = 0; i < nColumns; i++) {
+			boolean hasX = data1.hasValue(index1, i);
+			boolean hasY = data2.hasValue(index2, i);
+			x[i] = hasX ? data1.doubleValue(index1, i) + 0.0 : Double.NaN;
+			y[i] = hasY ? data2.doubleValue(index2, i) + 0.0 : Double.NaN;
+			both[i] = hasX && hasY;
+			if (both[i]) {
+				nBoth++;
+				if (i < nColumns-1) flag = true;
+			}
+		}
+		if (!flag) return 0.0;
+
+		long exx = 0;
+		long exy = 0;
+		if (nBoth < nColumns) {
+			Map<Double,Integer> xCounts = new HashMap<Double,Integer>();
+			Map<Double,Integer> yCounts = new HashMap<Double,Integer>();
+			for (int i = 0; i < nColumns; i++) {
+				if (both[i]) {
+					increment(xCounts, x[i]);
+					increment(yCounts, y[i]);
+				} else if (Double.isNaN(x[i]) && !Double.isNaN(y[i])) {
+					exy += count(yCounts, y[i]);
+				} else if (!Double.isNaN(x[i]) && Double.isNaN(y[i])) {
+					exx += count(xCounts, x[i]);
+				}
+			}
+		}
+
+		// Knight's algorithm over the complete columns: order by x (from the
+		// row's cached order), break x ties by y, then count the y inversions
+		int[] sorted = new int[nBoth];
+		int n = 0;
+		for (int column: order1) {
+			if (both[column]) sorted[n++] = column;
+		}
+		int[] work = new int[nBoth];
+		long xTies = 0;
+		long xyTies = 0;
+		int start = 0;
+		while (start < nBoth) {
+			int end = start+1;
+			while (end < nBoth && x[sorted[end]] == x[sorted[start]]) end++;
+			xTies += pairs(end-start);
+			if (end-start > 1) {
+				mergeSort(sorted, work, start, end, y);
+				xyTies += countTies(sorted, start, end, y);
+			}
+			start = end;
+		}
+		long discordant = mergeSort(sorted, work, 0, nBoth, y);
+		long yTies = countTies(sorted, 0, nBoth, y);
+
+		int dis = (int)discordant;
+		int con = (int)(pairs(nBoth) - xTies - yTies + xyTies - discordant);
+		double denomx = con + dis + (int)(exx + xTies - xyTies);
+		double denomy = con + dis + (int)(exy + yTies - xyTies);
+		if (denomx == 0) return 1;
+		if (denomy == 0) return 1;
+		double tau = (con-dis)/Math.sqrt(denomx*denomy);
+		return 1.-tau;
+	}
+
+	private static long pairs(long n) {
+		return n*(n-1)/2;
+	}
+
+	private static void increment(Map<Double,Integer> counts, double value) {
+		Integer count = counts.get(value);
+		counts.put(value, count == null ? 1 : count+1);
+	}
+
+	private static int count(Map<Double,Integer> counts, double value) {
+		Integer count = counts.get(value);
+		return count == null ? 0 : count;
+	}
+
+	/*
+	 * Count the pairs of tied keys in a range of columns that is sorted by key
+	 */
+	private static long countTies(int[] columns, int from, int to, double[] key) {
+		long ties = 0;
+		int start = from;
+		while (start < to) {
+			int end = start+1;
+			while (end < to && key[columns[end]] == key[columns[start]]) end++;
+			ties += pairs(end-start);
+			start = end;
+		}
+		return ties;
+	}
+
+	/*
+	 * Stable merge sort of a range of columns by key.  Returns the number of
+	 * pairs that were out of order (strictly greater key first).
+	 */
+	private static long mergeSort(int[] columns, int[] work, int from, int to, double[] key) {
+		if (to-from < 2) return 0;
+		int middle = (from+to) >>> 1;
+		long swaps = mergeSort(columns, work, from, middle, key) + 
+		             mergeSort(columns, work, middle, to, key);
+		int left = from;
+		int right = middle;
+		int out = from;
+		while (left < middle && right < to) {
+			if (key[columns[right]] < key[columns[left]]) {
+				swaps += middle-left;
+				work[out++] = columns[right++];
+			} else {
+				work[out++] = columns[left++];
+			}
+		}
+		while (left < middle) work[out++] = columns[left++];
+		while (right < to) work[out++] = columns[right++];
+		System.arraycopy(work, from, columns, from, to-from);
+		return swaps;
+	}
+
+	/*
+	 * The original O(c^2) version, which we still use for rows with NaN values
+	 */
+	private static double kendallPairsMetric(BaseMatrix data1, BaseMatrix data2, double[] weights, 
+	                                         int index1, int index2) {
 		int con = 0;
 		int dis = 0;
 		int exx = 0;
@@ -0,0 +1,473 @@
+/* vim: set ts=2: */
+/**
+ * Copyright (c) 2011 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions, and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions, and the following
+ *      disclaimer in the documentation and/or other materials provided
+ *      with the distribution.
+ *   3. Redistributions must acknowledge that this software was
+ *      originally developed by the UCSF Computer Graphics Laboratory
+ *      under support by the NIH National Center for Research Resources,
+ *      grant P41-RR01081.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE REGENTS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package clusterMaker.algorithms.attributeClusterers.FeatureVector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cytoscape.task.TaskMonitor;
+
+import clusterMaker.algorithms.AbstractClusterAlgorithm;
+import clusterMaker.algorithms.attributeClusterers.BaseMatrix;
+import clusterMaker.algorithms.attributeClusterers.DistanceMetric;
+
+/**
+ * EdgeGenerator finds the pairs of rows in a matrix that are close enough to
+ * be joined by an edge.  Rather than building the full n x n distance array,
+ * distances are calculated in parallel over tiles of rows, once to find the
+ * range of distances (which we need to normalize them) and once more to keep
+ * only the pairs that pass the cutoff, and, optionally, are among the k
+ * nearest neighbors of either node.  The surviving pairs are kept in a
+ * compact edge buffer in row order.
+ */
+public class EdgeGenerator {
+	// Number of rows handed to a thread at a time
+	private static final int TILE_SIZE = 16;
+
+	private BaseMatrix matrix;
+	private DistanceMetric metric;
+	private AbstractClusterAlgorithm algorithm;
+	private TaskMonitor monitor;
+	private int nThreads;
+
+	private double minDistance = Double.MAX_VALUE;
+	private double maxDistance = Double.MIN_VALUE;
+
+	// The edge buffer
+	private int edgeCount = 0;
+	private int[] sources = new int[0];
+	private int[] targets = new int[0];
+	private double[] distances = new double[0];
+
+	public EdgeGenerator(BaseMatrix matrix, DistanceMetric metric, 
+	                     AbstractClusterAlgorithm algorithm, TaskMonitor monitor) {
+		this.matrix = matrix;
+		this.metric = metric;
+		this.algorithm = algorithm;
+		this.monitor = monitor;
+		this.nThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	public double getMinDistance() { return minDistance; }
+	public double getMaxDistance() { return maxDistance; }
+
+	/**
+ 	 * Return the distance between two rows, normalized to the range of all
+ 	 * distances.  findRange must have been called first.
+ 	 */
+	public double getNormalizedDistance(int row1, int row2) {
+		double distance = metric.getMetric(matrix, matrix, matrix.getWeights(), row1, row2);
+		return (distance-minDistance)/(maxDistance-minDistance);
+	}
+
+	/**
+ 	 * Calculate all of the pairwise distances to find the minimum and
+ 	 * maximum distance.
+ 	 *
+ 	 * @param progressStart the percent complete to report at the start
+ 	 * @param progressEnd the percent complete to report when we're done
+ 	 * @return false if we were canceled
+ 	 */
+	public boolean findRange(int progressStart, int progressEnd) {
+		final int nRows = matrix.nRows();
+		final double[][] range = new double[nTiles(nRows)][];
+
+		boolean completed = forEachTile(progressStart, progressEnd, new TileTask() {
+			public void run(int tile, int firstRow, int lastRow) {
+				double min = Double.MAX_VALUE;
+				double max = Double.MIN_VALUE;
+				for (int row = firstRow; row < lastRow; row++) {
+					for (int column = row+1; column < nRows; column++) {
+						double distance = metric.getMetric(matrix, matrix, matrix.getWeights(), row, column);
+						min = Math.min(min, distance);
+						max = Math.max(max, distance);
+					}
+				}
+				range[tile] = new double[] {min, max};
+			}
+		});
+		if (!completed) return false;
+
+		for (int tile = 0; tile < range.length; tile++) {
+			minDistance = Math.min(minDistance, range[tile][0]);
+			maxDistance = Math.max(maxDistance, range[tile][1]);
+		}
+		return true;
+	}
+
+	/**
+ 	 * Find all of the pairs of rows whose normalized distance is no greater
+ 	 * than the cutoff.  If edgesPerNode is greater than zero, we only keep a
+ 	 * pair if one of the rows is among the edgesPerNode nearest neighbors
+ 	 * of the other.  findRange must have been called first.
+ 	 *
+ 	 * @param cutoff the largest normalized distance to keep
+ 	 * @param edgesPerNode the number of nearest neighbors to keep for each row, or 0 for all
+ 	 * @param progressStart the percent complete to report at the start
+ 	 * @param progressEnd the percent complete to report when we're done
+ 	 * @return false if we were canceled
+ 	 */
+	public boolean findEdges(final double cutoff, final int edgesPerNode, 
+	                         int progressStart, int progressEnd) {
+		final int nRows = matrix.nRows();
+		final int nTiles = nTiles(nRows);
+		final EdgeBuffer[] tileEdges = new EdgeBuffer[nTiles];
+
+		if (edgesPerNode <= 0) {
+			boolean completed = forEachTile(progressStart, progressEnd, new TileTask() {
+				public void run(int tile, int firstRow, int lastRow) {
+					EdgeBuffer buffer = new EdgeBuffer();
+					for (int row = firstRow; row < lastRow; row++) {
+						for (int column = row+1; column < nRows; column++) {
+							double distance = getNormalizedDistance(row, column);
+							if (!(distance > cutoff))
+								buffer.add(row, column, distance);
+						}
+					}
+					tileEdges[tile] = buffer;
+				}
+			});
+			if (!completed) return false;
+			collectEdges(tileEdges);
+			return true;
+		}
+
+		// Find the nearest neighbors of each row.  Each row's neighbors are kept
+		// sorted by row index so we can look them up from the other side.
+		final int[][] neighbors = new int[nRows][];
+		final double[][] neighborDistances = new double[nRows][];
+		int progressMiddle = (progressStart+progressEnd)/2;
+		boolean completed = forEachTile(progressStart, progressMiddle, new TileTask() {
+			public void run(int tile, int firstRow, int lastRow) {
+				NeighborHeap heap = new NeighborHeap(edgesPerNode);
+				for (int row = firstRow; row < lastRow; row++) {
+					heap.clear();
+					for (int column = 0; column < nRows; column++) {
+						if (column == row) continue;
+						double distance = getNormalizedDistance(row, column);
+						if (!(distance > cutoff))
+							heap.offer(column, distance);
+					}
+					heap.sortByIndex();
+					neighbors[row] = Arrays.copyOf(heap.index, heap.size);
+					neighborDistances[row] = Arrays.copyOf(heap.distance, heap.size);
+				}
+			}
+		});
+		if (!completed) return false;
+
+		return findNeighborEdges(neighbors, neighborDistances, progressMiddle, progressEnd);
+	}
+
+	/**
+ 	 * Find the pairs of rows whose normalized distance is no greater than the
+ 	 * cutoff and where one of the rows is among the approximate edgesPerNode
+ 	 * nearest neighbors of the other.  Neighbors are found with NN-descent,
+ 	 * so we never look at all of the pairs.  Distances are normalized to the
+ 	 * range of distances NN-descent happened to calculate.
+ 	 *
+ 	 * @param cutoff the largest normalized distance to keep
+ 	 * @param edgesPerNode the number of nearest neighbors to find for each row
+ 	 * @param accuracy trades recall (1.0) for speed (0.0)
+ 	 * @param progressStart the percent complete to report at the start
+ 	 * @param progressEnd the percent complete to report when we're done
+ 	 * @return false if we were canceled
+ 	 */
+	public boolean findApproximateEdges(double cutoff, int edgesPerNode, double accuracy,
+	                                    int progressStart, int progressEnd) {
+		int nRows = matrix.nRows();
+		int progressMiddle = progressStart + (progressEnd-progressStart)*3/4;
+		NNDescent nnDescent = new NNDescent(matrix, metric, this, edgesPerNode, accuracy);
+		if (!nnDescent.run(progressStart, progressMiddle))
+			return false;
+
+		minDistance = nnDescent.getMinDistance();
+		maxDistance = nnDescent.getMaxDistance();
+
+		// Normalize, apply the cutoff, and sort each row's neighbors by row index
+		int[][] neighbors = new int[nRows][];
+		double[][] neighborDistances = new double[nRows][];
+		for (int row = 0; row < nRows; row++) {
+			int count = nnDescent.getNeighborCount(row);
+			long[] order = new long[count];
+			int kept = 0;
+			for (int i = 0; i < count; i++) {
+				double distance = (nnDescent.getDistances()[row][i]-minDistance)/(maxDistance-minDistance);
+				if (!(distance > cutoff))
+					order[kept++] = ((long)nnDescent.getNeighbors()[row][i] << 32) | i;
+			}
+			Arrays.sort(order, 0, kept);
+			neighbors[row] = new int[kept];
+			neighborDistances[row] = new double[kept];
+			for (int i = 0; i < kept; i++) {
+				int position = (int)(order[i] & 0xffffffffL);
+				neighbors[row][i] = (int)(order[i] >>> 32);
+				neighborDistances[row][i] = 
+					(nnDescent.getDistances()[row][position]-minDistance)/(maxDistance-minDistance);
+			}
+		}
+
+		return findNeighborEdges(neighbors, neighborDistances, progressMiddle, progressEnd);
+	}
+
+	/**
+ 	 * Keep each pair where either row picked the other as a neighbor.  Each
+ 	 * row's neighbors must be sorted by row index.
+ 	 */
+	private boolean findNeighborEdges(final int[][] neighbors, final double[][] neighborDistances,
+	                                  int progressStart, int progressEnd) {
+		final int nRows = matrix.nRows();
+		final EdgeBuffer[] tileEdges = new EdgeBuffer[nTiles(nRows)];
+
+		// Find the rows that picked each row, in row order
+		int[] reverseCount = new int[nRows];
+		for (int row = 0; row < nRows; row++) {
+			for (int neighbor: neighbors[row])
+				reverseCount[neighbor]++;
+		}
+		final int[][] reverse = new int[nRows][];
+		for (int row = 0; row < nRows; row++)
+			reverse[row] = new int[reverseCount[row]];
+		Arrays.fill(reverseCount, 0);
+		for (int row = 0; row < nRows; row++) {
+			for (int neighbor: neighbors[row])
+				reverse[neighbor][reverseCount[neighbor]++] = row;
+		}
+
+		boolean completed = forEachTile(progressStart, progressEnd, new TileTask() {
+			public void run(int tile, int firstRow, int lastRow) {
+				EdgeBuffer buffer = new EdgeBuffer();
+				for (int row = firstRow; row < lastRow; row++) {
+					int[] forward = neighbors[row];
+					int[] backward = reverse[row];
+					int f = 0;
+					int b = 0;
+					while (f < forward.length && forward[f] <= row) f++;
+					while (b < backward.length && backward[b] <= row) b++;
+					// Merge the two sorted lists
+					while (f < forward.length || b < backward.length) {
+						if (b >= backward.length || (f < forward.length && forward[f] <= backward[b])) {
+							buffer.add(row, forward[f], neighborDistances[row][f]);
+							if (b < backward.length && backward[b] == forward[f]) b++;
+							f++;
+						} else {
+							buffer.add(row, backward[b], getNormalizedDistance(row, backward[b]));
+							b++;
+						}
+					}
+				}
+				tileEdges[tile] = buffer;
+			}
+		});
+		if (!completed) return false;
+		collectEdges(tileEdges);
+		return true;
+	}
+
+	public int getEdgeCount() { return edgeCount; }
+	public int getSource(int edge) { return sources[edge]; }
+	public int getTarget(int edge) { return targets[edge]; }
+	public double getDistance(int edge) { return distances[edge]; }
+
+	private int nTiles(int nRows) {
+		return (nRows+TILE_SIZE-1)/TILE_SIZE;
+	}
+
+	private void collectEdges(EdgeBuffer[] tileEdges) {
+		edgeCount = 0;
+		for (EdgeBuffer buffer: tileEdges)
+			edgeCount += buffer.size;
+
+		sources = new int[edgeCount];
+		targets = new int[edgeCount];
+		distances = new double[edgeCount];
+		int offset = 0;
+		for (EdgeBuffer buffer: tileEdges) {
+			System.arraycopy(buffer.sources, 0, sources, offset, buffer.size);
+			System.arraycopy(buffer.targets, 0, targets, offset, buffer.size);
+			System.arraycopy(buffer.distances, 0, distances, offset, buffer.size);
+			offset += buffer.size;
+		}
+	}
+
+	interface TileTask {
+		public void run(int tile, int firstRow, int lastRow);
+	}
+
+	/**
+ 	 * Hand out tiles of rows to our threads.  Tiles are taken in order from
+ 	 * a shared counter, so threads that draw the (shorter) rows near the end
+ 	 * of the triangle just take more of them.
+ 	 */
+	boolean forEachTile(final int progressStart, final int progressEnd, final TileTask task) {
+		final int nRows = matrix.nRows();
+		final int nTiles = nTiles(nRows);
+		final AtomicInteger nextTile = new AtomicInteger(0);
+		final AtomicInteger tilesDone = new AtomicInteger(0);
+
+		ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for (int thread = 0; thread < nThreads; thread++) {
+			results.add(threadPool.submit(new Runnable() {
+				public void run() {
+					int tile;
+					while ((tile = nextTile.getAndIncrement()) < nTiles) {
+						if (algorithm != null && algorithm.halted()) return;
+						task.run(tile, tile*TILE_SIZE, Math.min(nRows, (tile+1)*TILE_SIZE));
+						int done = tilesDone.incrementAndGet();
+						if (monitor != null)
+							monitor.setPercentCompleted(progressStart + 
+							               (int)((progressEnd-progressStart)*(double)done/(double)nTiles));
+					}
+				}
+			}));
+		}
+		threadPool.shutdown();
+
+		try {
+			for (Future<?> result: results)
+				result.get();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+
+		return algorithm == null || !algorithm.halted();
+	}
+
+	/**
+ 	 * A growable buffer of edges for a single tile
+ 	 */
+	private class EdgeBuffer {
+		int size = 0;
+		int[] sources = new int[64];
+		int[] targets = new int[64];
+		double[] distances = new double[64];
+
+		void add(int source, int target, double distance) {
+			if (size == sources.length) {
+				sources = Arrays.copyOf(sources, size*2);
+				targets = Arrays.copyOf(targets, size*2);
+				distances = Arrays.copyOf(distances, size*2);
+			}
+			sources[size] = source;
+			targets[size] = target;
+			distances[size] = distance;
+			size++;
+		}
+	}
+
+	/**
+ 	 * A bounded max-heap that keeps the k nearest neighbors seen so far.
+ 	 * NaN distances are treated as the farthest.
+ 	 */
+	private class NeighborHeap {
+		int size = 0;
+		int[] index;
+		double[] distance;
+
+		NeighborHeap(int k) {
+			index = new int[k];
+			distance = new double[k];
+		}
+
+		void clear() { size = 0; }
+
+		void offer(int column, double value) {
+			if (size < index.length) {
+				index[size] = column;
+				distance[size] = value;
+				siftUp(size++);
+			} else if (farther(distance[0], value)) {
+				index[0] = column;
+				distance[0] = value;
+				siftDown(0);
+			}
+		}
+
+		void sortByIndex() {
+			// Pack the column and heap position together so a primitive sort
+			// gives us the order
+			long[] order = new long[size];
+			for (int i = 0; i < size; i++)
+				order[i] = ((long)index[i] << 32) | i;
+			Arrays.sort(order);
+
+			int[] sortedIndex = new int[index.length];
+			double[] sortedDistance = new double[distance.length];
+			for (int i = 0; i < size; i++) {
+				int position = (int)(order[i] & 0xffffffffL);
+				sortedIndex[i] = index[position];
+				sortedDistance[i] = distance[position];
+			}
+			index = sortedIndex;
+			distance = sortedDistance;
+		}
+
+		private boolean farther(double a, double b) {
+			if (Double.isNaN(a)) return !Double.isNaN(b);
+			return a > b;
+		}
+
+		private void siftUp(int i) {
+			while (i > 0) {
+				int parent = (i-1)/2;
+				if (!farther(distance[i], distance[parent])) break;
+				swap(i, parent);
+				i = parent;
+			}
+		}
+
+		private void siftDown(int i) {
+			while (true) {
+				int largest = i;
+				int left = 2*i+1;
+				int right = left+1;
+				if (left < size && farther(distance[left], distance[largest])) largest = left;
+				if (right < size && farther(distance[right], distance[largest])) largest = right;
+				if (largest == i) break;
+				swap(i, largest);
+				i = largest;
+			}
+		}
+
+		private void swap(int i, int j) {
+			int t = index[i]; index[i] = index[j]; index[j] = t;
+			double d = distance[i]; distance[i] = distance[j]; distance[j] = d;
+		}
+	}
+}
@@ -69,9 +69,16 @@ public class FeatureVectorCluster extends AbstractAttributeClusterer implements
 
 	boolean createNewNetwork = true;
 	double edgeCutoff = 0.001;
+	int edgesPerNode = 0;
+	boolean approximateNeighbors = false;
+	double neighborAccuracy = 0.8;
 	String dataAttributes = null;
 	String edgeAttribute = null;
 	final static String interaction = "distance";
+	// Number of edges we create at a time
+	final static int EDGE_BATCH = 10000;
+	// Number of neighbors to find if we're approximating and edgesPerNode isn't set
+	final static int DEFAULT_NEIGHBORS = 10;
 
 	public FeatureVectorCluster() {
 		super();
@@ -147,6 +154,27 @@ public class FeatureVectorCluster extends AbstractAttributeClusterer implements
 			t.setImmutable(true);
 		clusterProperties.add(t);
 
+		// We can also limit the number of edges to each node's nearest neighbors
+		t = new Tunable("edgesPerNode", "Only create edges to this many nearest neighbors (0 for all)",
+		                Tunable.INTEGER, new Integer(edgesPerNode));
+		if (!createNewNetwork)
+			t.setImmutable(true);
+		clusterProperties.add(t);
+
+		// For large data sets, we can approximate the nearest neighbors
+		t = new Tunable("approximateNeighbors", "Use approximate nearest neighbors (faster for large data)",
+		                Tunable.BOOLEAN, new Boolean(approximateNeighbors));
+		if (!createNewNetwork)
+			t.setImmutable(true);
+		clusterProperties.add(t);
+
+		t = new Tunable("neighborAccuracy", "Approximate neighbor accuracy (0-1)",
+		                Tunable.DOUBLE, new Double(neighborAccuracy),
+		                new Double(0.0), new Double(1.0), 0);
+		if (!createNewNetwork)
+			t.setImmutable(true);
+		clusterProperties.add(t);
+
 		clusterProperties.add(new Tunable("advancedParametersGroup",
 		                                  "Advanced Parameters",
 		                                  Tunable.GROUP, new Integer(3), 
@@ -179,6 +207,9 @@ public class FeatureVectorCluster extends AbstractAttributeClusterer implements
 				t.setImmutable(false);
 			else
 				t.setImmutable(true);
+			clusterProperties.get("edgesPerNode").setImmutable(!createNewNetwork);
+			clusterProperties.get("approximateNeighbors").setImmutable(!createNewNetwork);
+			clusterProperties.get("neighborAccuracy").setImmutable(!createNewNetwork);
 		}
 	}
 
@@ -219,6 +250,17 @@ public class FeatureVectorCluster extends AbstractAttributeClusterer implements
 		if ((t != null) && (t.valueChanged() || force))
 			edgeCutoff = ((Double) t.getValue()).doubleValue();
 
+		t = clusterProperties.get("edgesPerNode");
+		if ((t != null) && (t.valueChanged() || force))
+			edgesPerNode = ((Integer) t.getValue()).intValue();
+
+		t = clusterProperties.get("approximateNeighbors");
+		if ((t != null) && (t.valueChanged() || force))
+			approximateNeighbors = ((Boolean) t.getValue()).booleanValue();
+
+		t = clusterProperties.get("neighborAccuracy");
+		if ((t != null) && (t.valueChanged() || force))
+			neighborAccuracy = ((Double) t.getValue()).doubleValue();
 	}
 
 	public void doCluster(TaskMonitor monitor) {
@@ -265,80 +307,63 @@ public class FeatureVectorCluster extends AbstractAttributeClusterer implements
 
 		CyAttributes edgeAttributes = Cytoscape.getEdgeAttributes();
 
-		// For each node, get the distance to all other nodes
-		double maxdistance = Double.MIN_VALUE;
-		double mindistance = Double.MAX_VALUE;
-
-		double distanceMatrix[][] = new double[nNodes][nNodes];
-		for (int i = 0; i < nNodes; i++) {
-			for (int j = i+1; j < nNodes; j++) {
- 				double distance = distanceMetric.getMetric(matrix, matrix, matrix.getWeights(), i, j);
-				maxdistance = Math.max(maxdistance, distance);
-				mindistance = Math.min(mindistance, distance);
-				distanceMatrix[i][j] = distance;
-			}
-			if (monitor != null) {
-				if (canceled) return;
-				monitor.setPercentCompleted((int)(25 * (double)i/(double)nNodes));
-			}
-		}
+		// Find the range of distances, which we need to normalize them.  For
+		// approximate neighbors, we get the range along the way.
+		EdgeGenerator generator = new EdgeGenerator(matrix, distanceMetric, this, monitor);
+		boolean approximate = createNewNetwork && approximateNeighbors;
+		if (!approximate && !generator.findRange(1, 15))
+			return;
 
 		if (monitor != null) {
 			monitor.setStatus("Assigning values to edges");
 		}
 
-		int[] nodeArray = new int[2];
+		// Look up all of our nodes once
+		CyNode[] nodes = new CyNode[nNodes];
+		for (int i = 0; i < nNodes; i++)
+			nodes[i] = Cytoscape.getCyNode(matrix.getRowLabel(i));
+
 		List<CyEdge> edgeList = new ArrayList<CyEdge>();
-		double scale = maxdistance - mindistance;
-
-		/* Performance tuning -- what's taking all the time!
-		long time = System.currentTimeMillis();
-		long nodeFetchTime = 0L;
-		long edgeFetchTime = 0L;
-		long edgeCreateTime = 0L;
-		long networkAddTime = 0L;
-		long setAttributeTime = 0L;
-		int newEdges = 0;
-		*/
-
-		for (int i = 0; i < nNodes; i++) {
-			for (int j = i+1; j < nNodes; j++) {
-				// time = System.currentTimeMillis();
-				double distance = (distanceMatrix[i][j]-mindistance)/scale;
-				CyNode source = Cytoscape.getCyNode(matrix.getRowLabel(i));
-				CyNode target = Cytoscape.getCyNode(matrix.getRowLabel(j));
-				nodeArray[0] = source.getRootGraphIndex();
-				nodeArray[1] = target.getRootGraphIndex();
-
-				// nodeFetchTime += System.currentTimeMillis()-time;
-
-				if (createNewNetwork == true && distance > edgeCutoff)
-					continue;
-
-				// time = System.currentTimeMillis();
-				CyEdge edge;
-				if (createNewNetwork == true) {
-					edge = myCreateEdge(source, target, edgeAttributes);
-					edgeList.add(edge);
-				} else {
+
+		if (createNewNetwork) {
+			// Only keep the pairs that pass our cutoff
+			if (approximate) {
+				int k = edgesPerNode > 0 ? edgesPerNode : DEFAULT_NEIGHBORS;
+				if (!generator.findApproximateEdges(edgeCutoff, k, neighborAccuracy, 1, 40))
+					return;
+			} else if (!generator.findEdges(edgeCutoff, edgesPerNode, 15, 40)) {
+				return;
+			}
+
+			int edgeCount = generator.getEdgeCount();
+			StringBuilder edgeName = new StringBuilder();
+			for (int first = 0; first < edgeCount; first += EDGE_BATCH) {
+				int last = Math.min(edgeCount, first+EDGE_BATCH);
+				myCreateEdges(nodes, generator, first, last, edgeAttributes, edgeName, edgeList);
+				if (monitor != null)  {
+					if (canceled) return;
+					monitor.setPercentCompleted((int)(40 + (60 * (double)last/(double)edgeCount)));
+				}
+			}
+		} else {
+			// We only need distances for the pairs that already have an edge
+			int[] nodeArray = new int[2];
+			for (int i = 0; i < nNodes; i++) {
+				nodeArray[0] = nodes[i].getRootGraphIndex();
+				for (int j = i+1; j < nNodes; j++) {
+					nodeArray[1] = nodes[j].getRootGraphIndex();
 					int[] edgeArray = network.getConnectingEdgeIndicesArray(nodeArray);
-					// edgeFetchTime += System.currentTimeMillis()-time;
-					// time = System.currentTimeMillis();
-					if (edgeArray == null || edgeArray.length == 0) {
+					if (edgeArray == null || edgeArray.length == 0)
 						continue;
-					} else {
-						edge = (CyEdge)network.getEdge(edgeArray[0]);
-						// edgeFetchTime += System.currentTimeMillis()-time;
-					}
+					CyEdge edge = (CyEdge)network.getEdge(edgeArray[0]);
+					if (edge == null) continue;
+					double distance = generator.getNormalizedDistance(i, j);
+					edgeAttributes.setAttribute(edge.getIdentifier(), edgeAttribute, distance);
+				}
+				if (monitor != null)  {
+					if (canceled) return;
+					monitor.setPercentCompleted((int)(15 + (85 * (double)i/(double)nNodes)));
 				}
-				if (edge == null) continue;
-				// time = System.currentTimeMillis();
-				edgeAttributes.setAttribute(edge.getIdentifier(), edgeAttribute, distance);
-				// setAttributeTime += System.currentTimeMillis()-time;
-			}
-			if (monitor != null)  {
-				if (canceled) return;
-				monitor.setPercentCompleted((int)(25 + (75 * (double)i/(double)nNodes)));
 			}
 		}
 
@@ -354,15 +379,6 @@ public class FeatureVectorCluster extends AbstractAttributeClusterer implements
 				view.applyLayout(alg);
 		}
 
-		/*
-		System.out.println("Created "+newEdges+" edges");
-		System.out.println("Edge creation time: "+edgeCreateTime+"ms");
-		System.out.println("Network add time: "+networkAddTime+"ms");
-		System.out.println("Edge fetch time: "+edgeFetchTime+"ms");
-		System.out.println("Node fetch time: "+nodeFetchTime+"ms");
-		System.out.println("Set attribute time: "+setAttributeTime+"ms");
-		*/
-
 		if (monitor != null)
 			monitor.setStatus("Complete");
 
@@ -376,22 +392,42 @@ public class FeatureVectorCluster extends AbstractAttributeClusterer implements
 
 	/**
  	 * Cytoscape doesn't provide us with an easy way to create an edge without searching
- 	 * for it first.  Since we've already searched for it, we are absolutely certain
- 	 * by this point that the edge doesn't exist, so we can save significant time by
- 	 * just going ahead and creating it.
+ 	 * for it first.  Since we're creating a new network, we are absolutely certain
+ 	 * by this point that the edges don't exist, so we can save significant time by
+ 	 * just going ahead and creating them.  Edges are created a batch at a time, and
+ 	 * their attributes are written one attribute at a time across the batch.
  	 */
-	private CyEdge myCreateEdge(CyNode source, CyNode target, CyAttributes edgeAttributes) {
-		int rootEdge = Cytoscape.getRootGraph().createEdge(source, target);
-		CyEdge edge = (CyEdge) Cytoscape.getRootGraph().getEdge(rootEdge);
-
-		// create the edge id
-		String edge_name = CyEdge.createIdentifier(source.getIdentifier(),
-		                                           interaction,
-		                                           target.getIdentifier());
-		edge.setIdentifier(edge_name);
-
-		edgeAttributes.setAttribute(edge_name, Semantics.INTERACTION, interaction);
-		edgeAttributes.setAttribute(edge_name, Semantics.CANONICAL_NAME, edge_name);
-		return edge;
+	private void myCreateEdges(CyNode[] nodes, EdgeGenerator generator, int first, int last,
+	                           CyAttributes edgeAttributes, StringBuilder edgeName,
+	                           List<CyEdge> edgeList) {
+		int batchSize = last-first;
+		int[] sourceIndices = new int[batchSize];
+		int[] targetIndices = new int[batchSize];
+		for (int i = 0; i < batchSize; i++) {
+			sourceIndices[i] = nodes[generator.getSource(first+i)].getRootGraphIndex();
+			targetIndices[i] = nodes[generator.getTarget(first+i)].getRootGraphIndex();
+		}
+
+		int[] rootEdges = Cytoscape.getRootGraph().createEdges(sourceIndices, targetIndices, true);
+
+		// create the edge ids
+		String[] edgeNames = new String[batchSize];
+		for (int i = 0; i < batchSize; i++) {
+			CyEdge edge = (CyEdge) Cytoscape.getRootGraph().getEdge(rootEdges[i]);
+			edgeName.setLength(0);
+			edgeName.append(nodes[generator.getSource(first+i)].getIdentifier());
+			edgeName.append(" (").append(interaction).append(") ");
+			edgeName.append(nodes[generator.getTarget(first+i)].getIdentifier());
+			edgeNames[i] = edgeName.toString();
+			edge.setIdentifier(edgeNames[i]);
+			edgeList.add(edge);
+		}
+
+		for (int i = 0; i < batchSize; i++)
+			edgeAttributes.setAttribute(edgeNames[i], Semantics.INTERACTION, interaction);
+		for (int i = 0; i < batchSize; i++)
+			edgeAttributes.setAttribute(edgeNames[i], Semantics.CANONICAL_NAME, edgeNames[i]);
+		for (int i = 0; i < batchSize; i++)
+			edgeAttributes.setAttribute(edgeNames[i], edgeAttribute, generator.getDistance(first+i));
 	}
 }
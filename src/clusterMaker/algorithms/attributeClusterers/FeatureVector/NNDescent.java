@@ -0,0 +1,344 @@
+/* vim: set ts=2: */
+/**
+ * Copyright (c) 2011 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions, and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions, and the following
+ *      disclaimer in the documentation and/or other materials provided
+ *      with the distribution.
+ *   3. Redistributions must acknowledge that this software was
+ *      originally developed by the UCSF Computer Graphics Laboratory
+ *      under support by the NIH National Center for Research Resources,
+ *      grant P41-RR01081.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE REGENTS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package clusterMaker.algorithms.attributeClusterers.FeatureVector;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import clusterMaker.algorithms.attributeClusterers.BaseMatrix;
+import clusterMaker.algorithms.attributeClusterers.DistanceMetric;
+
+/**
+ * NNDescent builds an approximate k-nearest-neighbor graph over the rows of a
+ * matrix using the NN-descent algorithm of Dong, Charikar and Li ("Efficient
+ * K-Nearest Neighbor Graph Construction for Generic Similarity Measures",
+ * WWW 2011).  Starting from random neighbors, each iteration compares the
+ * neighbors of neighbors of every row and keeps any that are closer, until
+ * almost nothing changes.  Since it only needs a distance function, it works
+ * with any of our distance metrics.
+ *
+ * The accuracy (0-1) trades recall for time: higher values sample more of the
+ * candidate neighbors in each iteration and keep iterating longer.
+ */
+public class NNDescent {
+	private BaseMatrix matrix;
+	private DistanceMetric metric;
+	private EdgeGenerator generator;
+	private int k;
+	private int sampleSize;
+	private double delta;
+	private int maxIterations;
+	private long seed = 42L;
+
+	// The neighbor heaps: a max-heap on distance for each row
+	private int[][] neighbors;
+	private double[][] distances;
+	private boolean[][] isNew;
+	private int[] heapSize;
+
+	private double minDistance = Double.MAX_VALUE;
+	private double maxDistance = Double.MIN_VALUE;
+
+	public NNDescent(BaseMatrix matrix, DistanceMetric metric, EdgeGenerator generator,
+	                 int k, double accuracy) {
+		this.matrix = matrix;
+		this.metric = metric;
+		this.generator = generator;
+		this.k = Math.max(1, Math.min(k, matrix.nRows()-1));
+
+		accuracy = Math.max(0.0, Math.min(1.0, accuracy));
+		this.sampleSize = Math.max(1, (int)Math.ceil(this.k * (0.3 + 0.7*accuracy)));
+		this.delta = 0.0005 + 0.05*(1.0-accuracy);
+		this.maxIterations = 5 + (int)(20*accuracy);
+	}
+
+	/**
+ 	 * Build the neighbor graph.
+ 	 *
+ 	 * @param progressStart the percent complete to report at the start
+ 	 * @param progressEnd the percent complete to report when we're done
+ 	 * @return false if we were canceled
+ 	 */
+	public boolean run(int progressStart, int progressEnd) {
+		final int nRows = matrix.nRows();
+		neighbors = new int[nRows][k];
+		distances = new double[nRows][k];
+		isNew = new boolean[nRows][k];
+		heapSize = new int[nRows];
+		if (nRows < 2) return true;
+
+		int progressStep = (progressEnd-progressStart)/(maxIterations+1);
+
+		// Start with random neighbors
+		boolean completed = generator.forEachTile(progressStart, progressStart+progressStep, 
+		                                          new EdgeGenerator.TileTask() {
+			public void run(int tile, int firstRow, int lastRow) {
+				Random random = new Random(seed+tile);
+				double min = Double.MAX_VALUE;
+				double max = Double.MIN_VALUE;
+				for (int row = firstRow; row < lastRow; row++) {
+					while (heapSize[row] < k) {
+						int column = random.nextInt(nRows);
+						if (column == row) continue;
+						double distance = distance(row, column);
+						update(row, column, distance);
+						min = Math.min(min, distance);
+						max = Math.max(max, distance);
+					}
+				}
+				noteRange(min, max);
+			}
+		});
+		if (!completed) return false;
+
+		Random random = new Random(seed);
+		for (int iteration = 0; iteration < maxIterations; iteration++) {
+			final int[][] newCandidates = new int[nRows][];
+			final int[][] oldCandidates = new int[nRows][];
+			buildCandidates(random, newCandidates, oldCandidates);
+
+			final int[] updates = new int[1];
+			int start = progressStart+progressStep*(iteration+1);
+			completed = generator.forEachTile(start, start+progressStep, new EdgeGenerator.TileTask() {
+				public void run(int tile, int firstRow, int lastRow) {
+					int count = 0;
+					double min = Double.MAX_VALUE;
+					double max = Double.MIN_VALUE;
+					for (int row = firstRow; row < lastRow; row++) {
+						int[] newRow = newCandidates[row];
+						int[] oldRow = oldCandidates[row];
+						// Compare new neighbors with each other, and with old neighbors
+						for (int i = 0; i < newRow.length; i++) {
+							int p = newRow[i];
+							for (int j = i+1; j < newRow.length; j++) {
+								int q = newRow[j];
+								if (p == q) continue;
+								double distance = distance(p, q);
+								count += update(p, q, distance) + update(q, p, distance);
+								min = Math.min(min, distance);
+								max = Math.max(max, distance);
+							}
+							for (int j = 0; j < oldRow.length; j++) {
+								int q = oldRow[j];
+								if (p == q) continue;
+								double distance = distance(p, q);
+								count += update(p, q, distance) + update(q, p, distance);
+								min = Math.min(min, distance);
+								max = Math.max(max, distance);
+							}
+						}
+					}
+					noteRange(min, max);
+					synchronized (updates) { updates[0] += count; }
+				}
+			});
+			if (!completed) return false;
+
+			// Stop when almost nothing changed
+			if (updates[0] <= delta*nRows*k)
+				break;
+		}
+		return true;
+	}
+
+	public int[][] getNeighbors() { return neighbors; }
+	public double[][] getDistances() { return distances; }
+	public int getNeighborCount(int row) { return heapSize[row]; }
+
+	/**
+ 	 * Return the smallest and largest distances we calculated along the way.
+ 	 * Since we never see all of the pairs, these are approximate.
+ 	 */
+	public double getMinDistance() { return minDistance; }
+	public double getMaxDistance() { return maxDistance; }
+
+	private double distance(int row1, int row2) {
+		return metric.getMetric(matrix, matrix, matrix.getWeights(), row1, row2);
+	}
+
+	private synchronized void noteRange(double min, double max) {
+		minDistance = Math.min(minDistance, min);
+		maxDistance = Math.max(maxDistance, max);
+	}
+
+	/**
+ 	 * Split each row's neighbors into new ones (that haven't taken part in a
+ 	 * join yet) and old ones, add the reverse neighbors, and sample the new
+ 	 * ones down to our sample size.
+ 	 */
+	private void buildCandidates(Random random, int[][] newCandidates, int[][] oldCandidates) {
+		int nRows = neighbors.length;
+		int[][] forwardNew = new int[nRows][];
+		int[][] forwardOld = new int[nRows][];
+		int[] newReverseCount = new int[nRows];
+		int[] oldReverseCount = new int[nRows];
+
+		for (int row = 0; row < nRows; row++) {
+			int[] newList = new int[heapSize[row]];
+			int[] oldList = new int[heapSize[row]];
+			int nNew = 0;
+			int nOld = 0;
+			for (int i = 0; i < heapSize[row]; i++) {
+				if (isNew[row][i])
+					newList[nNew++] = i;
+				else
+					oldList[nOld++] = neighbors[row][i];
+			}
+
+			// Sample the new neighbors, and mark the ones we take as old
+			shuffle(random, newList, nNew);
+			nNew = Math.min(nNew, sampleSize);
+			for (int i = 0; i < nNew; i++) {
+				isNew[row][newList[i]] = false;
+				newList[i] = neighbors[row][newList[i]];
+			}
+
+			forwardNew[row] = Arrays.copyOf(newList, nNew);
+			forwardOld[row] = Arrays.copyOf(oldList, nOld);
+			for (int i = 0; i < nNew; i++)
+				newReverseCount[newList[i]]++;
+			for (int i = 0; i < nOld; i++)
+				oldReverseCount[oldList[i]]++;
+		}
+
+		int[][] reverseNew = new int[nRows][];
+		int[][] reverseOld = new int[nRows][];
+		for (int row = 0; row < nRows; row++) {
+			reverseNew[row] = new int[newReverseCount[row]];
+			reverseOld[row] = new int[oldReverseCount[row]];
+		}
+		Arrays.fill(newReverseCount, 0);
+		Arrays.fill(oldReverseCount, 0);
+		for (int row = 0; row < nRows; row++) {
+			for (int neighbor: forwardNew[row])
+				reverseNew[neighbor][newReverseCount[neighbor]++] = row;
+			for (int neighbor: forwardOld[row])
+				reverseOld[neighbor][oldReverseCount[neighbor]++] = row;
+		}
+
+		for (int row = 0; row < nRows; row++) {
+			newCandidates[row] = merge(random, forwardNew[row], reverseNew[row]);
+			oldCandidates[row] = merge(random, forwardOld[row], reverseOld[row]);
+		}
+	}
+
+	/**
+ 	 * Combine a row's neighbors with a sample of its reverse neighbors,
+ 	 * dropping duplicates.
+ 	 */
+	private int[] merge(Random random, int[] forward, int[] reverse) {
+		int nReverse = Math.min(reverse.length, sampleSize);
+		shuffle(random, reverse, nReverse);
+		int[] merged = Arrays.copyOf(forward, forward.length+nReverse);
+		System.arraycopy(reverse, 0, merged, forward.length, nReverse);
+		Arrays.sort(merged);
+		int size = 0;
+		for (int i = 0; i < merged.length; i++) {
+			if (size == 0 || merged[size-1] != merged[i])
+				merged[size++] = merged[i];
+		}
+		return Arrays.copyOf(merged, size);
+	}
+
+	/**
+ 	 * Partial Fisher-Yates shuffle: afterwards, the first count entries of
+ 	 * values are a random sample of the whole array
+ 	 */
+	private void shuffle(Random random, int[] values, int count) {
+		for (int i = 0; i < count && i < values.length-1; i++) {
+			int j = i + random.nextInt(values.length-i);
+			int t = values[i]; values[i] = values[j]; values[j] = t;
+		}
+	}
+
+	/**
+ 	 * Try to add column to row's neighbors
+ 	 *
+ 	 * @return 1 if the neighbors changed, 0 otherwise
+ 	 */
+	private int update(int row, int column, double distance) {
+		synchronized (neighbors[row]) {
+			int[] heap = neighbors[row];
+			double[] heapDistances = distances[row];
+			int size = heapSize[row];
+			for (int i = 0; i < size; i++) {
+				if (heap[i] == column) return 0;
+			}
+
+			int i;
+			if (size < k) {
+				i = size++;
+				heapSize[row] = size;
+				// Sift up
+				while (i > 0 && farther(distance, heapDistances[(i-1)/2])) {
+					int parent = (i-1)/2;
+					heap[i] = heap[parent];
+					heapDistances[i] = heapDistances[parent];
+					isNew[row][i] = isNew[row][parent];
+					i = parent;
+				}
+			} else {
+				if (!farther(heapDistances[0], distance)) return 0;
+				// Sift down from the root
+				i = 0;
+				while (true) {
+					int left = 2*i+1;
+					int right = left+1;
+					int largest = -1;
+					double largestDistance = distance;
+					if (left < size && farther(heapDistances[left], largestDistance)) {
+						largest = left;
+						largestDistance = heapDistances[left];
+					}
+					if (right < size && farther(heapDistances[right], largestDistance))
+						largest = right;
+					if (largest < 0) break;
+					heap[i] = heap[largest];
+					heapDistances[i] = heapDistances[largest];
+					isNew[row][i] = isNew[row][largest];
+					i = largest;
+				}
+			}
+			heap[i] = column;
+			heapDistances[i] = distance;
+			isNew[row][i] = true;
+			return 1;
+		}
+	}
+
+	// NaN distances are treated as the farthest
+	private static boolean farther(double a, double b) {
+		if (Double.isNaN(a)) return !Double.isNaN(b);
+		return a > b;
+	}
+}
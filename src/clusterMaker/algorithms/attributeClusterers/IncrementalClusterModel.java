@@ -0,0 +1,726 @@
+/**
+ * Copyright (c) 2008 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions, and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions, and the following
+ *      disclaimer in the documentation and/or other materials provided
+ *      with the distribution.
+ *   3. Redistributions must acknowledge that this software was
+ *      originally developed by the UCSF Computer Graphics Laboratory
+ *      under support by the NIH National Center for Research Resources,
+ *      grant P41-RR01081.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE REGENTS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package clusterMaker.algorithms.attributeClusterers;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import giny.model.GraphPerspectiveChangeEvent;
+import giny.model.GraphPerspectiveChangeListener;
+import giny.model.Node;
+
+import cytoscape.CyNetwork;
+import cytoscape.CyNode;
+import cytoscape.Cytoscape;
+import cytoscape.data.CyAttributes;
+import cytoscape.data.attr.MultiHashMapListener;
+import cytoscape.groups.CyGroup;
+import cytoscape.groups.CyGroupManager;
+import cytoscape.logger.CyLogger;
+
+import clusterMaker.ClusterMaker;
+import clusterMaker.algorithms.AttributeCache;
+
+/**
+ * IncrementalClusterModel remembers enough about the last node clustering of
+ * a network to place new nodes without clustering everything again.  For
+ * partitioning results (PAM, HOPACH, k-means, ...) we keep the data for each
+ * cluster's medoid, and a new node joins the cluster with the nearest medoid.
+ * For hierarchical results we keep the data for every leaf, and a new node is
+ * paired with its nearest leaf in the tree.  Either way, the cluster attributes
+ * and the node order are updated in place.  If the clustering created groups,
+ * new nodes join them too.  The model reads the cluster and order lists of
+ * the network once, and then keeps its own linked copies, so placing a node
+ * doesn't need to search the lists.
+ *
+ * Each placement is only an approximation of what a full run would do, so once
+ * the number of nodes added passes a fraction of the number clustered (the
+ * drift threshold), addNodes tells the caller it's time to cluster again.
+ *
+ * Once a model is set, it listens for nodes added to its network and places
+ * them as they arrive.  Nodes usually get their attribute values after they
+ * are added, so a node is held back until it has values for all of the
+ * clustered attributes.  When the drift threshold is crossed, we log that
+ * the network should be clustered again and drop the model.  Models are
+ * also dropped when their network is destroyed.
+ */
+public class IncrementalClusterModel implements GraphPerspectiveChangeListener {
+	private static Map<String, IncrementalClusterModel> models = 
+	                                     new HashMap<String, IncrementalClusterModel>();
+	// Listens for attribute values and destroyed networks while there are models
+	private static Listener listener = null;
+
+	// Most candidates we'll consider when looking for a large cluster's medoid
+	static final int MAX_MEDOID_CANDIDATES = 200;
+
+	private final String clusterType;
+	private final String[] attributes;
+	private final Set<String> attributeSet;
+	private final DistanceMetric metric;
+	private final boolean zeroMissing;
+	private final boolean hierarchical;
+	// Hierarchical trees from Euclidean and city-block distances are scaled to [0,1]
+	private final double scale;
+
+	// The rows we compare new nodes against: medoids or leaves
+	private final List<double[]> rows = new ArrayList<double[]>();
+	private final List<String> labels = new ArrayList<String>();
+	// For partitions, the cluster each medoid belongs to
+	private final List<Integer> clusterNumbers = new ArrayList<Integer>();
+	// The same rows as a matrix for the distance metrics, built on first use
+	private BaseMatrix known = null;
+
+	private final int nClustered;
+	private int nAdded = 0;
+	private int nGroups = 0;
+	private double driftThreshold = 0.2;
+
+	// The network we're listening to, once the model has been set
+	private CyNetwork network = null;
+	// New nodes that are still missing some of their attribute values
+	private final Set<String> waiting = new HashSet<String>();
+
+	// Our copy of the node order, read from the network on first use
+	private LinkedOrder order = null;
+	// For partitions: the cluster lines, and the last node of each cluster in the order
+	private List<String> clusterLines = null;
+	private Map<String, String> lastInCluster = null;
+	// For trees: the lines of the groups in order, and the group holding
+	// each leaf or group
+	private LinkedOrder groupLines = null;
+	private Map<String, String> parentGroups = null;
+	// The groups created by the clustering, if any
+	private Set<String> groupNames = null;
+
+	private IncrementalClusterModel(String clusterType, String[] weightAttributes, 
+	                                DistanceMetric metric, boolean zeroMissing, 
+	                                boolean hierarchical, double scale, int nClustered) {
+		this.clusterType = clusterType;
+		this.attributes = new String[weightAttributes.length];
+		for (int i = 0; i < weightAttributes.length; i++)
+			this.attributes[i] = weightAttributes[i].substring(5); // Skip "node."
+		this.attributeSet = new HashSet<String>(Arrays.asList(this.attributes));
+		this.metric = metric;
+		this.zeroMissing = zeroMissing;
+		this.hierarchical = hierarchical;
+		this.scale = scale;
+		this.nClustered = nClustered;
+	}
+
+	/**
+ 	 * Return the model for the most recent node clustering of a network, or
+ 	 * null if there isn't one (or the network's attributes have since been
+ 	 * replaced by a different clustering).
+ 	 *
+ 	 * @param network the network we want the model for
+ 	 * @return the model, or null
+ 	 */
+	public static synchronized IncrementalClusterModel getModel(CyNetwork network) {
+		IncrementalClusterModel model = models.get(network.getIdentifier());
+		if (model == null)
+			return null;
+
+		CyAttributes netAttr = Cytoscape.getNetworkAttributes();
+		String netID = network.getIdentifier();
+		if (!netAttr.hasAttribute(netID, ClusterMaker.CLUSTER_TYPE_ATTRIBUTE) ||
+		    !model.clusterType.equals(netAttr.getStringAttribute(netID, ClusterMaker.CLUSTER_TYPE_ATTRIBUTE)))
+			return null;
+		return model;
+	}
+
+	/**
+ 	 * Set the model for a network, and start placing the nodes that are added
+ 	 * to it.
+ 	 *
+ 	 * @param netID the network the model belongs to
+ 	 * @param model the model
+ 	 */
+	public static synchronized void setModel(String netID, IncrementalClusterModel model) {
+		clearModel(netID);
+		CyNetwork network = Cytoscape.getNetwork(netID);
+		if (network == null)
+			return;
+
+		model.network = network;
+		models.put(netID, model);
+		network.addGraphPerspectiveChangeListener(model);
+		if (listener == null) {
+			listener = new Listener();
+			Cytoscape.getNodeAttributes().getMultiHashMap().addDataListener(listener);
+			Cytoscape.getPropertyChangeSupport().addPropertyChangeListener(Cytoscape.NETWORK_DESTROYED, listener);
+		}
+	}
+
+	/**
+ 	 * Forget the model for a network, and stop listening once there are no
+ 	 * models left.
+ 	 *
+ 	 * @param netID the network whose model we drop
+ 	 */
+	static synchronized void clearModel(String netID) {
+		IncrementalClusterModel model = models.remove(netID);
+		if (model != null)
+			model.network.removeGraphPerspectiveChangeListener(model);
+		if (models.isEmpty() && listener != null) {
+			Cytoscape.getNodeAttributes().getMultiHashMap().removeDataListener(listener);
+			Cytoscape.getPropertyChangeSupport().removePropertyChangeListener(Cytoscape.NETWORK_DESTROYED, listener);
+			listener = null;
+		}
+	}
+
+	private static synchronized List<IncrementalClusterModel> getModels() {
+		return new ArrayList<IncrementalClusterModel>(models.values());
+	}
+
+	/**
+ 	 * Remember a partitioning of the rows of a (non-transposed, node attribute)
+ 	 * matrix.
+ 	 *
+ 	 * @param clusterType the cluster type we wrote into the CLUSTER_TYPE_ATTRIBUTE
+ 	 * @param weightAttributes the node attributes we clustered on
+ 	 * @param matrix the matrix we clustered
+ 	 * @param metric the distance metric
+ 	 * @param zeroMissing whether missing values were set to zero
+ 	 * @param nClusters the number of clusters
+ 	 * @param clusters the cluster for each row
+ 	 */
+	public static IncrementalClusterModel partitionModel(String clusterType, String[] weightAttributes,
+	                                                     Matrix matrix, DistanceMetric metric,
+	                                                     boolean zeroMissing, int nClusters, 
+	                                                     int[] clusters) {
+		IncrementalClusterModel model = 
+		      new IncrementalClusterModel(clusterType, weightAttributes, metric, zeroMissing, 
+		                                  false, 1.0, matrix.nRows());
+		List<List<Integer>> members = new ArrayList<List<Integer>>();
+		for (int cluster = 0; cluster < nClusters; cluster++)
+			members.add(new ArrayList<Integer>());
+		for (int row = 0; row < clusters.length; row++) {
+			if (clusters[row] >= 0 && clusters[row] < nClusters)
+				members.get(clusters[row]).add(row);
+		}
+
+		for (int cluster = 0; cluster < nClusters; cluster++) {
+			int medoid = findMedoid(matrix, metric, members.get(cluster));
+			if (medoid < 0) continue;
+			model.addRow(matrix, medoid, cluster);
+		}
+		return model;
+	}
+
+	/**
+ 	 * Remember a hierarchical clustering of the rows of a (non-transposed, node
+ 	 * attribute) matrix.
+ 	 *
+ 	 * @param clusterType the cluster type we wrote into the CLUSTER_TYPE_ATTRIBUTE
+ 	 * @param weightAttributes the node attributes we clustered on
+ 	 * @param matrix the matrix we clustered
+ 	 * @param metric the distance metric
+ 	 * @param zeroMissing whether missing values were set to zero
+ 	 * @param scale what we divided the tree distances by
+ 	 * @param nGroups the number of groups (internal nodes) in the tree
+ 	 */
+	public static IncrementalClusterModel treeModel(String clusterType, String[] weightAttributes,
+	                                                Matrix matrix, DistanceMetric metric,
+	                                                boolean zeroMissing, double scale, int nGroups) {
+		IncrementalClusterModel model = 
+		      new IncrementalClusterModel(clusterType, weightAttributes, metric, zeroMissing, 
+		                                  true, scale, matrix.nRows());
+		for (int row = 0; row < matrix.nRows(); row++)
+			model.addRow(matrix, row, -1);
+		model.nGroups = nGroups;
+		return model;
+	}
+
+	/**
+ 	 * Set the fraction of the originally clustered nodes that can be added
+ 	 * before addNodes reports that the clustering should be redone.
+ 	 *
+ 	 * @param threshold the drift threshold (default 0.2)
+ 	 */
+	public void setDriftThreshold(double threshold) { driftThreshold = threshold; }
+
+	/**
+ 	 * Return true if enough nodes have been added that the network should
+ 	 * be clustered again
+ 	 */
+	public boolean needsRebuild() {
+		return nAdded > driftThreshold * nClustered;
+	}
+
+	/**
+ 	 * Place new nodes into the existing clustering, and update the cluster
+ 	 * attributes and node order of the network.  Nodes that are already part
+ 	 * of the clustering, or that have none of the attributes, are skipped.
+ 	 *
+ 	 * @param network the network the nodes were added to
+ 	 * @param nodes the new nodes
+ 	 * @return true if the drift threshold has been crossed and the network
+ 	 * should be clustered again
+ 	 */
+	public synchronized boolean addNodes(CyNetwork network, List<CyNode> nodes) {
+		CyAttributes netAttr = Cytoscape.getNetworkAttributes();
+		String netID = network.getIdentifier();
+		if (rows.size() == 0 ||
+		    !netAttr.hasAttribute(netID, ClusterMaker.CLUSTER_NODE_ATTRIBUTE) ||
+		    !netAttr.hasAttribute(netID, ClusterMaker.NODE_ORDER_ATTRIBUTE))
+			return true;
+		if (order == null)
+			readLists(netAttr, netID);
+
+		// Get the data for the nodes we haven't seen
+		List<CyNode> newNodes = new ArrayList<CyNode>();
+		for (CyNode node: nodes) {
+			if (!order.contains(node.getIdentifier()))
+				newNodes.add(node);
+		}
+		if (newNodes.size() == 0)
+			return needsRebuild();
+
+		double[][] values = AttributeCache.getNodeCache().getValues(attributes, newNodes);
+
+		// Make room for the leaves we'll add
+		ensureKnownCapacity(rows.size() + (hierarchical ? newNodes.size() : 0));
+		int nGroupNames = groupNames.size();
+
+		for (int node = 0; node < newNodes.size(); node++) {
+			BaseMatrix newRow = new BaseMatrix(1, attributes.length);
+			double[] newValues = new double[attributes.length];
+			boolean hasValue = false;
+			for (int column = 0; column < attributes.length; column++) {
+				newValues[column] = Double.NaN;
+				if (values[column][node] != AttributeCache.NO_VALUE) {
+					newRow.setValue(0, column, values[column][node]);
+					newValues[column] = values[column][node];
+					hasValue = true;
+				} else if (zeroMissing) {
+					newRow.setValue(0, column, 0.0);
+					newValues[column] = 0.0;
+				}
+			}
+			if (!hasValue) continue;
+
+			String label = newNodes.get(node).getIdentifier();
+			double[] distance = new double[1];
+			int nearest = findNearest(newRow, distance);
+
+			if (hierarchical) {
+				String group = insertLeaf(label, newValues, nearest, distance[0]);
+				// The new leaf can be the nearest leaf for later nodes
+				setKnownRow(rows.size()-1, newValues);
+				addToTreeGroup(group, labels.get(nearest), newNodes.get(node));
+			} else {
+				String cluster = clusterNumbers.get(nearest).toString();
+				clusterLines.add(label+"\t"+cluster);
+				insertAfterCluster(label, cluster);
+				addToGroup("Cluster_"+cluster, newNodes.get(node));
+			}
+			nAdded++;
+		}
+
+		netAttr.setListAttribute(netID, ClusterMaker.CLUSTER_NODE_ATTRIBUTE, 
+		                         hierarchical ? groupLines.toList() : clusterLines);
+		netAttr.setListAttribute(netID, ClusterMaker.NODE_ORDER_ATTRIBUTE, order.toList());
+		if (groupNames.size() > nGroupNames)
+			netAttr.setListAttribute(netID, ClusterMaker.GROUP_ATTRIBUTE, new ArrayList<String>(groupNames));
+		return needsRebuild();
+	}
+
+	/*
+	 * Read the cluster, order and group lists of the network into our own copies
+	 */
+	@SuppressWarnings("unchecked")
+	private void readLists(CyAttributes netAttr, String netID) {
+		List<String> clusterList = (List<String>)netAttr.getListAttribute(netID, ClusterMaker.CLUSTER_NODE_ATTRIBUTE);
+		List<String> orderList = (List<String>)netAttr.getListAttribute(netID, ClusterMaker.NODE_ORDER_ATTRIBUTE);
+
+		order = new LinkedOrder();
+		for (String label: orderList)
+			order.add(label, label);
+
+		if (hierarchical) {
+			groupLines = new LinkedOrder();
+			parentGroups = new HashMap<String, String>();
+			for (String line: clusterList) {
+				String[] fields = line.split("\t");
+				groupLines.add(fields[0], line);
+				if (fields.length < 4) continue;
+				for (int child = 1; child <= 2; child++) {
+					if (!parentGroups.containsKey(fields[child]))
+						parentGroups.put(fields[child], fields[0]);
+				}
+			}
+		} else {
+			clusterLines = new ArrayList<String>(clusterList);
+			Map<String, String> clusterMap = new HashMap<String, String>();
+			for (String line: clusterList) {
+				String[] fields = line.split("\t");
+				if (fields.length >= 2)
+					clusterMap.put(fields[0], fields[1]);
+			}
+			lastInCluster = new HashMap<String, String>();
+			for (String label: orderList) {
+				String cluster = clusterMap.get(label);
+				if (cluster != null)
+					lastInCluster.put(cluster, label);
+			}
+		}
+
+		groupNames = new LinkedHashSet<String>();
+		if (netAttr.hasAttribute(netID, ClusterMaker.GROUP_ATTRIBUTE))
+			groupNames.addAll((List<String>)netAttr.getListAttribute(netID, ClusterMaker.GROUP_ATTRIBUTE));
+	}
+
+	/*
+	 * Make sure the matrix of rows we compare new nodes against has room for
+	 * capacity rows.  It grows by doubling, so nodes that arrive one at a time
+	 * don't rebuild it each time.
+	 */
+	private void ensureKnownCapacity(int capacity) {
+		if (known != null && known.nRows() >= capacity)
+			return;
+		int size = (known == null) ? capacity : Math.max(capacity, 2*known.nRows());
+		known = new BaseMatrix(size, attributes.length);
+		for (int row = 0; row < rows.size(); row++)
+			setKnownRow(row, rows.get(row));
+		known.setUniformWeights();
+	}
+
+	private void setKnownRow(int row, double[] rowValues) {
+		for (int column = 0; column < attributes.length; column++) {
+			if (!Double.isNaN(rowValues[column]))
+				known.setValue(row, column, rowValues[column]);
+		}
+	}
+
+	/*
+	 * Return the index of the row nearest to a new row (and its distance)
+	 */
+	private int findNearest(BaseMatrix newRow, double[] distance) {
+		newRow.setUniformWeights();
+
+		int nearest = 0;
+		double minDistance = Double.MAX_VALUE;
+		for (int row = 0; row < rows.size(); row++) {
+			double d = metric.getMetric(newRow, known, known.getWeights(), 0, row);
+			if (d < minDistance) {
+				minDistance = d;
+				nearest = row;
+			}
+		}
+		distance[0] = minDistance;
+		return nearest;
+	}
+
+	/*
+	 * Pair a new leaf with its nearest leaf: the nearest leaf is replaced in
+	 * its parent by a new group holding both of them.  Returns the new group.
+	 */
+	private String insertLeaf(String label, double[] values, int nearest, double distance) {
+		String nearestLabel = labels.get(nearest);
+		String group = "GROUP"+(++nGroups)+"X";
+		double similarity = 1.0 - (scale != 0.0 ? distance/scale : distance);
+
+		String parent = parentGroups.get(nearestLabel);
+		if (parent != null) {
+			String[] fields = groupLines.getText(parent).split("\t");
+			// Keep the tree monotonic: a group can't be further apart than its parent
+			similarity = Math.max(similarity, Double.parseDouble(fields[3]));
+			if (fields[1].equals(nearestLabel)) 
+				fields[1] = group;
+			else
+				fields[2] = group;
+			groupLines.setText(parent, fields[0]+"\t"+fields[1]+"\t"+fields[2]+"\t"+fields[3]);
+			parentGroups.put(group, parent);
+		}
+		String line = group+"\t"+nearestLabel+"\t"+label+"\t"+similarity;
+		if (parent != null)
+			groupLines.insertBefore(parent, group, line);
+		else
+			groupLines.add(group, line);
+		parentGroups.put(nearestLabel, group);
+		parentGroups.put(label, group);
+
+		if (order.contains(nearestLabel))
+			order.insertAfter(nearestLabel, label, label);
+		else
+			order.add(label, label);
+
+		rows.add(values);
+		labels.add(label);
+		clusterNumbers.add(-1);
+		return group;
+	}
+
+	/*
+	 * Put a new node after the last node of its cluster
+	 */
+	private void insertAfterCluster(String label, String cluster) {
+		String last = lastInCluster.get(cluster);
+		if (last == null)
+			order.add(label, label);
+		else
+			order.insertAfter(last, label, label);
+		lastInCluster.put(cluster, label);
+	}
+
+	private void addToGroup(String groupName, CyNode node) {
+		if (!groupNames.contains(groupName))
+			return;
+		CyGroup group = CyGroupManager.findGroup(groupName);
+		if (group != null)
+			group.addNode(node);
+	}
+
+	/*
+	 * If the tree has groups, the new pair of leaves gets its own group, which
+	 * takes the place of the nearest leaf in its parent's group
+	 */
+	private void addToTreeGroup(String groupName, String nearestLabel, CyNode node) {
+		String parentName = parentGroups.get(groupName);
+		if (parentName == null || !groupNames.contains(parentName))
+			return;
+		CyGroup parent = CyGroupManager.findGroup(parentName);
+		CyNode nearestNode = Cytoscape.getCyNode(nearestLabel, false);
+		if (parent == null || nearestNode == null)
+			return;
+
+		List<CyNode> memberList = new ArrayList<CyNode>(2);
+		memberList.add(nearestNode);
+		memberList.add(node);
+		CyGroup group = CyGroupManager.createGroup(groupName, memberList, null);
+		if (group == null)
+			return;
+		CyGroupManager.setGroupViewer(group, "namedSelection", Cytoscape.getCurrentNetworkView(), false);
+		parent.removeNode(nearestNode);
+		parent.addNode(group.getGroupNode());
+		groupNames.add(groupName);
+	}
+
+	/**
+ 	 * Place the nodes added to our network.  Nodes that don't have all of the
+ 	 * clustered attributes yet wait until they do.
+ 	 */
+	public void graphPerspectiveChanged(GraphPerspectiveChangeEvent event) {
+		if (!event.isNodesRestoredType() || event.getRestoredNodes() == null)
+			return;
+
+		CyAttributes nodeAttr = Cytoscape.getNodeAttributes();
+		List<CyNode> nodes = new ArrayList<CyNode>();
+		for (Node node: event.getRestoredNodes()) {
+			CyNode cyNode = (CyNode)node;
+			// Group nodes come from the clustering itself
+			if (CyGroupManager.isaGroup(cyNode))
+				continue;
+			if (hasAllValues(nodeAttr, cyNode.getIdentifier())) {
+				nodes.add(cyNode);
+			} else {
+				synchronized (waiting) {
+					waiting.add(cyNode.getIdentifier());
+				}
+			}
+		}
+		place(nodes);
+	}
+
+	/*
+	 * A node attribute changed: place the node if it was waiting for it
+	 */
+	private void valueChanged(String nodeID, String attributeName) {
+		if (!attributeSet.contains(attributeName))
+			return;
+		synchronized (waiting) {
+			if (!waiting.contains(nodeID) || !hasAllValues(Cytoscape.getNodeAttributes(), nodeID))
+				return;
+			waiting.remove(nodeID);
+		}
+		CyNode node = Cytoscape.getCyNode(nodeID, false);
+		if (node != null && network.containsNode(node))
+			place(Collections.singletonList(node));
+	}
+
+	private boolean hasAllValues(CyAttributes nodeAttr, String nodeID) {
+		for (String attribute: attributes) {
+			if (!nodeAttr.hasAttribute(nodeID, attribute))
+				return false;
+		}
+		return true;
+	}
+
+	private void place(List<CyNode> nodes) {
+		if (nodes.size() == 0)
+			return;
+		// Another clustering has replaced ours
+		String netID = network.getIdentifier();
+		if (getModel(network) != this) {
+			clearModel(netID);
+			return;
+		}
+		if (addNodes(network, nodes)) {
+			CyLogger.getLogger(IncrementalClusterModel.class).warning(
+			    nAdded+" nodes have been added to "+netID+" since it was clustered ("+clusterType+
+			    "); cluster it again to place any further nodes");
+			clearModel(netID);
+		}
+	}
+
+	/**
+ 	 * Passes node attribute changes and destroyed networks on to the models
+ 	 */
+	static class Listener implements MultiHashMapListener, PropertyChangeListener {
+		public void attributeValueAssigned(String objectKey, String attributeName,
+		                                   Object[] keyIntoValue, Object oldAttributeValue,
+		                                   Object newAttributeValue) {
+			for (IncrementalClusterModel model: getModels())
+				model.valueChanged(objectKey, attributeName);
+		}
+
+		public void attributeValueRemoved(String objectKey, String attributeName,
+		                                  Object[] keyIntoValue, Object attributeValue) {
+		}
+
+		public void allAttributeValuesRemoved(String objectKey, String attributeName) {
+		}
+
+		public void propertyChange(PropertyChangeEvent evt) {
+			if (evt.getPropertyName() == Cytoscape.NETWORK_DESTROYED) {
+				Object network = evt.getNewValue();
+				if (network instanceof CyNetwork)
+					clearModel(((CyNetwork)network).getIdentifier());
+				else if (network != null)
+					clearModel(network.toString());
+			}
+		}
+	}
+
+	/*
+	 * A list of distinct strings kept as a doubly linked list, so we can
+	 * insert next to any element without searching for it.  Each element
+	 * carries the text we write out for it: the element itself, or the
+	 * line of a group in a tree.
+	 */
+	static class LinkedOrder {
+		private static class Entry {
+			String text;
+			Entry previous;
+			Entry next;
+		}
+
+		private final Map<String, Entry> entries = new HashMap<String, Entry>();
+		private Entry first = null;
+		private Entry last = null;
+
+		boolean contains(String element) { return entries.containsKey(element); }
+
+		String getText(String element) { return entries.get(element).text; }
+
+		void setText(String element, String text) { entries.get(element).text = text; }
+
+		void add(String element, String text) { insert(last, element, text); }
+
+		void insertAfter(String after, String element, String text) { insert(entries.get(after), element, text); }
+
+		void insertBefore(String before, String element, String text) { 
+			insert(entries.get(before).previous, element, text); 
+		}
+
+		// Insert element after an entry, or at the start if the entry is null
+		private void insert(Entry after, String element, String text) {
+			if (contains(element))
+				return;
+			Entry entry = new Entry();
+			entry.text = text;
+			entry.previous = after;
+			entry.next = (after == null) ? first : after.next;
+			if (after == null)
+				first = entry;
+			else
+				after.next = entry;
+			if (entry.next == null)
+				last = entry;
+			else
+				entry.next.previous = entry;
+			entries.put(element, entry);
+		}
+
+		List<String> toList() {
+			List<String> list = new ArrayList<String>(entries.size());
+			for (Entry entry = first; entry != null; entry = entry.next)
+				list.add(entry.text);
+			return list;
+		}
+	}
+
+	private void addRow(BaseMatrix matrix, int row, int cluster) {
+		double[] values = new double[matrix.nColumns()];
+		for (int column = 0; column < values.length; column++)
+			values[column] = matrix.hasValue(row, column) ? matrix.doubleValue(row, column) : Double.NaN;
+		rows.add(values);
+		labels.add(matrix.getRowLabel(row));
+		clusterNumbers.add(cluster);
+	}
+
+	/*
+	 * Find the member of a cluster with the smallest total distance to the
+	 * other members.  For large clusters, only an evenly spaced sample of the
+	 * members are considered as candidates.
+	 */
+	private static int findMedoid(BaseMatrix matrix, DistanceMetric metric, List<Integer> members) {
+		if (members.size() == 0) return -1;
+		int step = Math.max(1, members.size()/MAX_MEDOID_CANDIDATES);
+		int medoid = members.get(0);
+		double minSum = Double.MAX_VALUE;
+		for (int candidate = 0; candidate < members.size(); candidate += step) {
+			int row = members.get(candidate);
+			double sum = 0.0;
+			for (int member: members) {
+				if (member == row) continue;
+				sum += metric.getMetric(matrix, matrix, matrix.getWeights(), 
+				                        Math.min(row, member), Math.max(row, member));
+				if (sum >= minSum) break;
+			}
+			if (sum < minSum) {
+				minSum = sum;
+				medoid = row;
+			}
+		}
+		return medoid;
+	}
+}
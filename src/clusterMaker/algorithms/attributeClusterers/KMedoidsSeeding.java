@@ -0,0 +1,191 @@
+package clusterMaker.algorithms.attributeClusterers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * k-medoids++ seeding. The first center is chosen uniformly at random, and each
+ * further center with probability proportional to D(x)^2, the squared distance
+ * from x to the nearest center chosen so far.  This spreads the initial centers
+ * across the data rather than bunching them up in the middle.
+ * Needs O(n) memory and O(n*k) distance lookups.  For large data sets, the
+ * nearest distances are updated in parallel, in fixed chunks, so the centers
+ * chosen for a given random number generator don't depend on the thread count.
+ * See Arthur, D. and Vassilvitskii, S. (2007). k-means++: the advantages of
+ * careful seeding. SODA '07: 1027-1035.
+ * chooseRandomCenters picks centers uniformly instead, for random restarts.
+ * Independent of Cytoscape.
+ */
+public class KMedoidsSeeding {
+	// below this many elements, it's not worth updating in parallel
+	static final int PARALLEL_THRESHOLD = 10000;
+	static final int CHUNK_SIZE = 4096;
+
+	private final DistanceMatrix distances;
+	private final int n;
+	// squared distance to the nearest center so far
+	private final double[] nearest;
+	// sum of nearest over each chunk
+	private final double[] chunkSums;
+
+	private KMedoidsSeeding(DistanceMatrix distances) {
+		this.distances = distances;
+		this.n = distances.size();
+		this.nearest = new double[n];
+		this.chunkSums = new double[(n + CHUNK_SIZE - 1) / CHUNK_SIZE];
+	}
+
+	/**
+	 * Choose k distinct centers.
+	 * @param distances distances between the data elements
+	 * @param k number of centers
+	 * @param random random number generator
+	 * @return indices of the centers (in the indexing of distances)
+	 */
+	public static int[] chooseCenters(DistanceMatrix distances, int k, SplittableRandom random) {
+		if (k > distances.size()) {
+			throw new IllegalArgumentException("Number of centers must not exceed the number of data elements.");
+		}
+		return new KMedoidsSeeding(distances).choose(k, random);
+	}
+
+	/**
+	 * Choose k distinct elements uniformly at random (Floyd's algorithm).  Each
+	 * concurrent caller should pass its own random number generator, split
+	 * from a seeded one, so the results don't depend on thread scheduling.
+	 * @param n number of data elements
+	 * @param k number of centers
+	 * @param random random number generator
+	 * @return indices of the centers
+	 */
+	public static int[] chooseRandomCenters(int n, int k, SplittableRandom random) {
+		if (k > n) {
+			throw new IllegalArgumentException("Number of centers must not exceed the number of data elements.");
+		}
+		int[] centers = new int[k];
+		Set<Integer> chosen = new HashSet<Integer>();
+		int i = 0;
+		for (int j = n - k; j < n; ++j) {
+			int t = random.nextInt(j + 1);
+			int center = chosen.contains(t) ? j : t;
+			chosen.add(center);
+			centers[i++] = center;
+		}
+		return centers;
+	}
+
+	private int[] choose(int k, SplittableRandom random) {
+		int[] centers = new int[k];
+		boolean[] isCenter = new boolean[n];
+		if (k == 0) return centers;
+
+		int nThreads = n < PARALLEL_THRESHOLD ? 1 :
+		               Math.min(Runtime.getRuntime().availableProcessors(), chunkSums.length);
+		ExecutorService threadPool = nThreads > 1 ? Executors.newFixedThreadPool(nThreads) : null;
+		try {
+			centers[0] = random.nextInt(n);
+			isCenter[centers[0]] = true;
+			Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+			for (int c = 1; c < k; ++c) {
+				update(centers[c-1], threadPool);
+
+				double total = 0;
+				for (double sum: chunkSums) {
+					total += sum;
+				}
+
+				int center = -1;
+				if (total > 0 && !Double.isInfinite(total)) {
+					center = sample(random.nextDouble() * total);
+				}
+				if (center < 0 || isCenter[center]) {
+					// every remaining element duplicates a center: pick any of them
+					int skip = random.nextInt(n - c);
+					center = -1;
+					while (skip >= 0) {
+						++center;
+						if (!isCenter[center]) --skip;
+					}
+				}
+				centers[c] = center;
+				isCenter[center] = true;
+			}
+		} finally {
+			if (threadPool != null) threadPool.shutdown();
+		}
+		return centers;
+	}
+
+	/**
+	 * Find the element where the running sum of D(x)^2 passes target.
+	 */
+	private int sample(double target) {
+		for (int chunk = 0; chunk < chunkSums.length; ++chunk) {
+			if (target >= chunkSums[chunk] && chunk < chunkSums.length - 1) {
+				target -= chunkSums[chunk];
+				continue;
+			}
+			int end = Math.min((chunk + 1) * CHUNK_SIZE, n);
+			int last = -1;
+			for (int i = chunk * CHUNK_SIZE; i < end; ++i) {
+				if (nearest[i] <= 0) continue;
+				last = i;
+				target -= nearest[i];
+				if (target < 0) return i;
+			}
+			// rounding left us just past the end of the chunk
+			return last;
+		}
+		return -1;
+	}
+
+	/**
+	 * Update the nearest distances with a new center, and the chunk sums.
+	 */
+	private void update(final int center, ExecutorService threadPool) {
+		if (threadPool == null) {
+			for (int chunk = 0; chunk < chunkSums.length; ++chunk) {
+				updateChunk(center, chunk);
+			}
+			return;
+		}
+
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for (int c = 0; c < chunkSums.length; ++c) {
+			final int chunk = c;
+			results.add(threadPool.submit(new Runnable() {
+				public void run() {
+					updateChunk(center, chunk);
+				}
+			}));
+		}
+		try {
+			for (Future<?> result: results) {
+				result.get();
+			}
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void updateChunk(int center, int chunk) {
+		int end = Math.min((chunk + 1) * CHUNK_SIZE, n);
+		double sum = 0;
+		for (int i = chunk * CHUNK_SIZE; i < end; ++i) {
+			// center first, so a lazy matrix only has to compute the center's row
+			double d = distances.getValue(center, i);
+			// elements we can't compare with the center aren't chosen
+			d = Double.isNaN(d) ? 0 : d * d;
+			if (d < nearest[i]) nearest[i] = d;
+			sum += nearest[i];
+		}
+		chunkSums[chunk] = sum;
+	}
+}
@@ -0,0 +1,341 @@
+package clusterMaker.algorithms.attributeClusterers;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distance matrix that computes rows of distances only when they are needed.
+ * At most a fixed number of rows are kept, so memory is bounded even when the
+ * full matrix wouldn't fit.  Callers such as PAM scan all of the rows over and
+ * over, which defeats a least-recently-used cache, so rows are kept in the
+ * order they are first computed until the cache is full, and after that only
+ * pinned rows (e.g. the current medoids) displace them.  Other rows are then
+ * computed, used and dropped.  While the cache has room, the next few rows (in
+ * index order) are computed on a background thread, since most callers walk
+ * through the rows in order.  A row is never computed twice at the same time.
+ * Subsets share the row cache.
+ * Independent of Cytoscape.
+ */
+public class LazyDistanceMatrix extends DistanceMatrix {
+	// number of rows to compute ahead of a miss
+	static final int PREFETCH = 4;
+
+	protected RowCache rows;
+
+	/**
+	 * Constructor.
+	 * @param data matrix of data
+	 * @param metric distance metric
+	 * @param idx index array, or null for all of the data elements
+	 * @param maxRows the maximum number of rows of distances to keep
+	 */
+	public LazyDistanceMatrix(BaseMatrix data, DistanceMetric metric, int[] idx, int maxRows) {
+		super(metric, idx);
+		if (idx == null) {
+			// initialize indexing array to original order
+			int n = data.nRows();
+			idx = new int[n];
+			for (int i = 0; i < n; ++i) {
+				idx[i] = i;
+			}
+			this.idx = idx;
+		}
+		this.rows = new RowCache(data, metric, Math.max(maxRows, 2));
+	}
+
+	/**
+	 * Constructor. For use by LazyDistanceMatrix.subset(.)
+	 * @param rows row cache
+	 * @param metric metric
+	 * @param idx index array
+	 */
+	private LazyDistanceMatrix(RowCache rows, DistanceMetric metric, int[] idx) {
+		super(metric, idx);
+		this.rows = rows;
+	}
+
+	/**
+	 * Get value at specified position.
+	 * @param i row index
+	 * @param j column index
+	 * @return value at position
+	 */
+	@Override
+	public double getValue(int i, int j) {
+		int row = idx[i];
+		int column = idx[j];
+
+		// Loops usually hold either the row or the column fixed, and the
+		// distances are symmetrical, so either recent row will do
+		CachedRow recent = rows.recent;
+		if (recent.index == row) return recent.values[column];
+		if (recent.index == column) return recent.values[row];
+		recent = rows.previous;
+		if (recent.index == row) return recent.values[column];
+		if (recent.index == column) return recent.values[row];
+
+		double[] values = rows.getCachedRow(row);
+		if (values == null) {
+			values = rows.getCachedRow(column);
+			if (values != null) {
+				rows.setRecent(new CachedRow(column, values));
+				return values[row];
+			}
+			values = rows.getRow(row);
+			prefetch(i+1);
+		}
+		rows.setRecent(new CachedRow(row, values));
+		return values[column];
+	}
+
+	/**
+	 * Keep row i in the cache, e.g. because it belongs to a medoid.  Pins are
+	 * counted, so each call should be matched by a call to unpinRow(i).
+	 * @param i row index
+	 */
+	@Override
+	public void pinRow(int i) {
+		rows.pin(idx[i]);
+	}
+
+	/**
+	 * Release a pin taken by pinRow(i).
+	 * @param i row index
+	 */
+	@Override
+	public void unpinRow(int i) {
+		rows.unpin(idx[i]);
+	}
+
+	/**
+	 * Subset distance matrix.
+	 * @param idx index array for subsetting (or potentially permuting, bootstrapping, etc.) the matrix
+	 * @return subset of current distance matrix
+	 */
+	@Override
+	public DistanceMatrix subset(int[] idx) {
+		// share the row cache, and use new index array
+		return new LazyDistanceMatrix(this.rows, this.metric, idx);
+	}
+
+	/**
+	 * Whether the distances are stored in single precision.
+	 * @return false, since rows are kept as doubles
+	 */
+	@Override
+	public boolean isSinglePrecision() {
+		return false;
+	}
+
+	private void prefetch(int start) {
+		int end = Math.min(start + PREFETCH, idx.length);
+		for (int i = start; i < end; ++i) {
+			rows.prefetch(idx[i]);
+		}
+	}
+
+	/**
+	 * A row of distances and the index of the data element it belongs to
+	 */
+	static class CachedRow {
+		final int index;
+		final double[] values;
+
+		CachedRow(int index, double[] values) {
+			this.index = index;
+			this.values = values;
+		}
+	}
+
+	/**
+	 * The rows of distances we're holding on to, shared by a matrix and all
+	 * of its subsets
+	 */
+	static class RowCache {
+		final BaseMatrix data;
+		final DistanceMetric metric;
+		final int maxRows;
+		// primitive copies of the complete rows, so we can skip the boxed values
+		final BlockedDistanceEngine engine;
+		final Map<Integer, double[]> cache = new HashMap<Integer, double[]>();
+		// number of pins on each pinned row
+		final Map<Integer, Integer> pins = new HashMap<Integer, Integer>();
+		// rows being computed, so other threads can wait for them
+		final Map<Integer, FutureTask<double[]>> pending = new HashMap<Integer, FutureTask<double[]>>();
+		ThreadPoolExecutor prefetcher = null;
+
+		// the two rows used most recently, checked before the cache
+		volatile CachedRow recent = new CachedRow(-1, null);
+		volatile CachedRow previous = new CachedRow(-1, null);
+
+		RowCache(BaseMatrix data, DistanceMetric metric, int maxRows) {
+			this.data = data;
+			this.metric = metric;
+			this.maxRows = maxRows;
+			this.engine = data.getBlockedDistanceEngine(metric);
+		}
+
+		synchronized double[] getCachedRow(int row) {
+			return cache.get(row);
+		}
+
+		synchronized void setRecent(CachedRow row) {
+			previous = recent;
+			recent = row;
+		}
+
+		/**
+		 * Get a row, from the cache, from the thread already computing it, or
+		 * by computing it on this thread.
+		 */
+		double[] getRow(int row) {
+			FutureTask<double[]> task;
+			boolean computeHere = false;
+			synchronized (this) {
+				double[] values = cache.get(row);
+				if (values != null)
+					return values;
+				task = pending.get(row);
+				if (task == null) {
+					task = newTask(row);
+					pending.put(row, task);
+					computeHere = true;
+				}
+			}
+			if (computeHere)
+				run(row, task);
+			try {
+				return task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+
+		synchronized void prefetch(int row) {
+			// don't compute rows ahead that we won't be able to keep
+			if (maxRows <= PREFETCH || cache.size() + pending.size() >= maxRows
+			    || cache.containsKey(row) || pending.containsKey(row))
+				return;
+
+			final int prefetchRow = row;
+			final FutureTask<double[]> task = newTask(row);
+			pending.put(row, task);
+			if (prefetcher == null) {
+				// the thread goes away once it has been idle for a second
+				prefetcher = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+				                                    new LinkedBlockingQueue<Runnable>(),
+				                                    new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Distance row prefetch");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+			prefetcher.execute(new Runnable() {
+				public void run() {
+					RowCache.this.run(prefetchRow, task);
+				}
+			});
+		}
+
+		synchronized void pin(int row) {
+			Integer count = pins.get(row);
+			pins.put(row, count == null ? 1 : count + 1);
+			double[] values = cache.get(row);
+			if (values == null && recent.index == row)
+				values = recent.values;
+			if (values == null && previous.index == row)
+				values = previous.values;
+			if (values != null)
+				keep(row, values);
+		}
+
+		synchronized void unpin(int row) {
+			Integer count = pins.get(row);
+			if (count == null)
+				return;
+			if (count > 1)
+				pins.put(row, count - 1);
+			else
+				pins.remove(row);
+		}
+
+		private FutureTask<double[]> newTask(final int row) {
+			return new FutureTask<double[]>(new Callable<double[]>() {
+				public double[] call() {
+					double[] values = computeRow(row);
+					synchronized (RowCache.this) {
+						keep(row, values);
+					}
+					return values;
+				}
+			});
+		}
+
+		private void run(int row, FutureTask<double[]> task) {
+			try {
+				task.run();
+			} finally {
+				synchronized (this) {
+					pending.remove(row);
+				}
+			}
+		}
+
+		/**
+		 * Store a row if there is room, or if it is pinned and an unpinned row
+		 * can make room for it.  Must hold the lock.
+		 */
+		private void keep(int row, double[] values) {
+			if (cache.containsKey(row))
+				return;
+			if (cache.size() >= maxRows) {
+				if (!pins.containsKey(row))
+					return;
+				Iterator<Integer> it = cache.keySet().iterator();
+				boolean evicted = false;
+				while (it.hasNext()) {
+					if (!pins.containsKey(it.next())) {
+						it.remove();
+						evicted = true;
+						break;
+					}
+				}
+				if (!evicted)
+					return;
+			}
+			cache.put(row, values);
+		}
+
+		double[] computeRow(int row) {
+			double[] values = new double[data.nRows()];
+			if (engine != null && engine.isComplete(row)) {
+				engine.computeRow(row, values);
+				double[] weights = data.getWeights();
+				for (int column = 0; column < values.length; column++) {
+					if (engine.isComplete(column))
+						continue;
+					if (column < row)
+						values[column] = metric.getMetric(data, data, weights, column, row);
+					else
+						values[column] = metric.getMetric(data, data, weights, row, column);
+				}
+			} else {
+				data.getDistanceRow(metric, row, values);
+			}
+			return values;
+		}
+	}
+}
@@ -42,9 +42,11 @@ import cytoscape.CyNode;
 import cytoscape.CyEdge;
 import cytoscape.Cytoscape;
 import cytoscape.CyNetwork;
-import cytoscape.data.CyAttributes;
+
+import giny.model.GraphObject;
 
 // clusterMaker imports
+import clusterMaker.algorithms.AttributeCache;
 
 /**
  * Matrix extends BaseMatrix to provide mechanism of importing attributes from Cytoscape network
@@ -176,7 +178,6 @@ public class Matrix extends BaseMatrix {
 	private void buildSymmetricalMatrix(CyNetwork network, String weight, 
 	                                    boolean ignoreMissing, boolean selectedOnly) {
 
-		CyAttributes edgeAttributes = Cytoscape.getEdgeAttributes();
 		// Get the list of edges
 		List<CyNode>nodeList = network.nodesList();
 
@@ -193,10 +194,17 @@ public class Matrix extends BaseMatrix {
 		this.columnNodes = null;
 		this.maxAttribute = Double.MIN_VALUE;
 
+		// Map each node and edge (by root graph index) to its position
+		int[] nodeIndex = makeIndexMap(nodeList);
+		List<CyEdge> networkEdges = network.edgesList();
+		int[] edgeIndex = makeIndexMap(networkEdges);
+
+		// Get all of the edge weights at once
+		double[] edgeValues = AttributeCache.getEdgeCache().getValues(weight, networkEdges);
+
 		// For each edge, get the attribute and update the matrix and mask values
 		int index = 0;
 		int column;
-		byte attributeType = edgeAttributes.getType(weight);
 
 		for (CyNode node: nodeList) {
 			boolean found = false;
@@ -212,24 +220,16 @@ public class Matrix extends BaseMatrix {
 				 	continue;
 				hasSelectedEdge = true;
 
-				Double val = null;
-				if (attributeType == CyAttributes.TYPE_FLOATING) {
-					val = edgeAttributes.getDoubleAttribute(edge.getIdentifier(), weight);
-				} else {
-					Integer v = edgeAttributes.getIntegerAttribute(edge.getIdentifier(), weight);
-					if (v != null)
-						val = Double.valueOf(v.toString());
-				}
-
-				if (val != null) {
+				double val = edgeValues[edgeIndex[-edge.getRootGraphIndex()]];
+				if (val != AttributeCache.NO_VALUE) {
 					found = true;
 					maxAttribute = Math.max(maxAttribute, val);
 					if (edge.getSource() == node) {
-						column = nodeList.indexOf(edge.getTarget());
+						column = nodeIndex[-edge.getTarget().getRootGraphIndex()];
 						matrix[index][column] = val;
 						//matrix.set(index,column,val);
 					} else {
-						column = nodeList.indexOf(edge.getSource());
+						column = nodeIndex[-edge.getSource().getRootGraphIndex()];
 						matrix[index][column] = val;
 						// matrix.set(index,column,val);
 					}
@@ -260,48 +260,29 @@ public class Matrix extends BaseMatrix {
 		// For debugging purposes, sort the node list by identifier
 		nodeList = sortNodeList(nodeList);
 
-		// Make a map of the conditions, indexed by CyNode
-		Map<CyNode,Map<String,Double>>nodeCondMap = new HashMap<CyNode,Map<String,Double>>();
-
 		// Make a map of the conditions, by name
 		List<String>condList = Arrays.asList(weightAttributes);
 
-		// Get our node attribute list
-		CyAttributes nodeAttributes = Cytoscape.getNodeAttributes();
-
-		// Iterate over all of our nodes, getting the conditions attributes
-		for (CyNode node: nodeList) {
-			// Create the map for this node
-			Map<String,Double>thisCondMap = new HashMap<String,Double>();
-
-			for (int attrIndex = 0; attrIndex < weightAttributes.length; attrIndex++) {
-				String attr = weightAttributes[attrIndex];
-				Double value = null;
-				// Get the attribute type
-				if (nodeAttributes.getType(attr) == CyAttributes.TYPE_INTEGER) {
-					Integer intVal = nodeAttributes.getIntegerAttribute(node.getIdentifier(), attr);
-					if (intVal != null)
-						value = Double.valueOf(intVal.doubleValue());
-				} else if (nodeAttributes.getType(attr) == CyAttributes.TYPE_FLOATING) {
-					value = nodeAttributes.getDoubleAttribute(node.getIdentifier(), attr);
-				} else {
-					continue; // At some point, handle lists?
-				}
-				if (!ignoreMissing || value != null) {
-					// System.out.println("Node = "+node.getIdentifier()+", attribute = "+attr+", ignoreMissing = "+ignoreMissing+" value = "+value);
-					// Set it
-					thisCondMap.put(attr, value);
-				}
+		// Snapshot all of the attribute values at once: values[attribute][node]
+		double[][] values = AttributeCache.getNodeCache().getValues(weightAttributes, nodeList);
+
+		// Figure out which nodes we're keeping
+		boolean[] keep = new boolean[nodeList.size()];
+		int nKept = 0;
+		for (int node = 0; node < keep.length; node++) {
+			keep[node] = !ignoreMissing;
+			for (int attrIndex = 0; !keep[node] && attrIndex < weightAttributes.length; attrIndex++) {
+				if (values[attrIndex][node] != AttributeCache.NO_VALUE)
+					keep[node] = true;
 			}
-			if (!ignoreMissing || thisCondMap.size() > 0)
-				nodeCondMap.put(node, thisCondMap);
+			if (keep[node]) nKept++;
 		}
 
 		// We've got all of the information, get our counts and create the
 		// matrix
 		if (transpose) {
 			this.nRows = condList.size();
-			this.nColumns = nodeCondMap.size();
+			this.nColumns = nKept;
 			this.matrix = new Double[nRows][nColumns];
 			// this.matrix = DoubleFactory2D.sparse.make(nRows,nColumns);
 			this.rowLabels = new String[nRows];
@@ -310,24 +291,22 @@ public class Matrix extends BaseMatrix {
 			setRowLabels(condList);
 
 			int column = 0;
-			for (CyNode node: nodeList) {
-				if (!nodeCondMap.containsKey(node))
+			for (int node = 0; node < keep.length; node++) {
+				if (!keep[node])
 					continue;
 
-				Map<String,Double>thisCondMap = nodeCondMap.get(node);
-				this.columnLabels[column] = node.getIdentifier();
-				this.columnNodes[column] = node;
+				this.columnLabels[column] = nodeList.get(node).getIdentifier();
+				this.columnNodes[column] = nodeList.get(node);
 				for (int row=0; row < this.nRows; row++) {
-					String rowLabel = this.rowLabels[row];
-					if (thisCondMap.containsKey(rowLabel)) {
-						matrix[row][column] = thisCondMap.get(rowLabel);
-						// matrix.set(row,column,thisCondMap.get(rowLabel));
+					if (values[row][node] != AttributeCache.NO_VALUE) {
+						matrix[row][column] = values[row][node];
+						// matrix.set(row,column,values[row][node]);
 					}
 				}
 				column++;
 			}
 		} else {
-			this.nRows = nodeCondMap.size();
+			this.nRows = nKept;
 			this.nColumns = condList.size();
 			this.rowLabels = new String[nRows];
 			this.rowNodes = new CyNode[nRows];
@@ -337,18 +316,15 @@ public class Matrix extends BaseMatrix {
 			setColumnLabels(condList);
 
 			int row = 0;
-			for (CyNode node: nodeList) {
-				if (!nodeCondMap.containsKey(node))
+			for (int node = 0; node < keep.length; node++) {
+				if (!keep[node])
 					continue;
-				this.rowLabels[row] = node.getIdentifier();
-				this.rowNodes[row] = node;
-				Map<String,Double>thisCondMap = nodeCondMap.get(node);
+				this.rowLabels[row] = nodeList.get(node).getIdentifier();
+				this.rowNodes[row] = nodeList.get(node);
 				for (int column=0; column < this.nColumns; column++) {
-					String columnLabel = this.columnLabels[column];
-					if (thisCondMap.containsKey(columnLabel)) {
-						// System.out.println("Setting matrix["+rowLabels[row]+"]["+columnLabel+"] to "+thisCondMap.get(columnLabel));
-						matrix[row][column] = thisCondMap.get(columnLabel);
-						// matrix.set(row,column,thisCondMap.get(columnLabel));
+					if (values[column][node] != AttributeCache.NO_VALUE) {
+						matrix[row][column] = values[column][node];
+						// matrix.set(row,column,values[column][node]);
 					}
 				}
 				row++;
@@ -356,6 +332,22 @@ public class Matrix extends BaseMatrix {
 		}
 	}
 
+	/**
+ 	 * Build an array that maps the (negated) root graph index of each node
+ 	 * or edge to its position in the list
+ 	 */
+	private int[] makeIndexMap(List<? extends GraphObject> objects) {
+		int maxIndex = 0;
+		for (GraphObject object: objects)
+			maxIndex = Math.max(maxIndex, -object.getRootGraphIndex());
+
+		int[] indexMap = new int[maxIndex+1];
+		Arrays.fill(indexMap, -1);
+		int index = 0;
+		for (GraphObject object: objects)
+			indexMap[-object.getRootGraphIndex()] = index++;
+		return indexMap;
+	}
 
 	// sortNodeList does an alphabetical sort on the names of the nodes.
 	private List<CyNode>sortNodeList(List<CyNode>nodeList) {
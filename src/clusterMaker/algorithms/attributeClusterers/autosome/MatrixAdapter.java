@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2013 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions, and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions, and the following
+ *      disclaimer in the documentation and/or other materials provided
+ *      with the distribution.
+ *   3. Redistributions must acknowledge that this software was
+ *      originally developed by the UCSF Computer Graphics Laboratory
+ *      under support by the NIH National Center for Research Resources,
+ *      grant P41-RR01081.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE REGENTS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package clusterMaker.algorithms.attributeClusterers.autosome;
+
+import clusterMaker.algorithms.attributeClusterers.BaseMatrix;
+import clusterMaker.algorithms.attributeClusterers.autosome.cluststruct.dataItem;
+
+/**
+ * MatrixAdapter hands the values of an attribute matrix to AutoSOME.  The matrix is
+ * read once into a block of primitive float rows, with missing values marked by
+ * MISSING, and the row arrays are passed to AutoSOME's data items directly.
+ * AutoSOME normalizes and fills the rows in place, so it finds the missing values
+ * by the marker, not from here.  The column (transposed) view used for fuzzy cluster
+ * networks over columns is only built if it is asked for.
+ */
+public class MatrixAdapter {
+	/**
+	 * Value AutoSOME expects in place of a missing value
+	 */
+	public static final float MISSING = -99999999;
+
+	private BaseMatrix matrix;
+	private int nRows;
+	private int nColumns;
+	private float[][] rows;
+	private float[][] columns = null;
+	private boolean hasMissing = false;
+
+	public MatrixAdapter(BaseMatrix matrix) {
+		this.matrix = matrix;
+		this.nRows = matrix.nRows();
+		this.nColumns = matrix.nColumns();
+		this.rows = new float[nRows][nColumns];
+
+		for (int row = 0; row < nRows; row++) {
+			float[] values = rows[row];
+			for (int col = 0; col < nColumns; col++) {
+				Double value = matrix.getValue(row, col);
+				if (value != null) {
+					values[col] = value.floatValue();
+				} else {
+					values[col] = MISSING;
+					hasMissing = true;
+				}
+			}
+		}
+	}
+
+	public int nRows() { return nRows; }
+
+	public int nColumns() { return nColumns; }
+
+	/**
+	 * Return true if any value in the matrix is missing
+	 */
+	public boolean hasMissing() { return hasMissing; }
+
+	public String getRowLabel(int row) { return matrix.getRowLabel(row); }
+
+	/*
+	 * Return the column values, transposing the matrix on first use.
+	 */
+	private float[] getColumn(int column) {
+		if (columns == null) {
+			float[][] t = new float[nColumns][nRows];
+			for (int row = 0; row < nRows; row++) {
+				float[] values = rows[row];
+				for (int col = 0; col < nColumns; col++)
+					t[col][row] = values[col];
+			}
+			columns = t;
+		}
+		return columns[column];
+	}
+
+	/**
+	 * Create one AutoSOME data item per matrix row, labelled with the row label.
+	 */
+	public dataItem[] getRowItems() {
+		dataItem[] items = new dataItem[nRows];
+		for (int row = 0; row < nRows; row++)
+			items[row] = new dataItem(rows[row], matrix.getRowLabel(row));
+		return items;
+	}
+
+	/**
+	 * Create one AutoSOME data item per matrix column, for clustering the transposed matrix.
+	 *
+	 * @param labels the label for each column
+	 */
+	public dataItem[] getColumnItems(String[] labels) {
+		dataItem[] items = new dataItem[nColumns];
+		for (int col = 0; col < nColumns; col++)
+			items[col] = new dataItem(getColumn(col), labels[col]);
+		return items;
+	}
+}
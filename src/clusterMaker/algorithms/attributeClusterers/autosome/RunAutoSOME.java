@@ -61,7 +61,6 @@ import cytoscape.logger.CyLogger;
 import cytoscape.task.TaskMonitor;
 
 import clusterMaker.algorithms.NodeCluster;
-import clusterMaker.algorithms.DistanceMatrix;
 import clusterMaker.algorithms.attributeClusterers.Matrix;
 
 import cern.colt.function.IntIntDoubleFunction;
@@ -72,7 +71,6 @@ import cern.colt.matrix.impl.SparseDoubleMatrix2D;
 
 import clusterMaker.algorithms.attributeClusterers.autosome.launch.*;
 import clusterMaker.algorithms.attributeClusterers.autosome.cluststruct.*;
-import clusterMaker.algorithms.edgeConverters.*;
 import clusterMaker.ClusterMaker;
 
 public class RunAutoSOME {
@@ -187,20 +185,15 @@ public class RunAutoSOME {
                 // Create the matrix
 		Matrix matrix = new Matrix(attributeArray, false, ignoreMissing, selectedOnly);
 
-                List<EdgeWeightConverter>converters = new ArrayList<EdgeWeightConverter>();
-		converters.add(new NoneConverter());
-		converters.add(new DistanceConverter1());
-		converters.add(new DistanceConverter2());
-		converters.add(new LogConverter());
-		converters.add(new NegLogConverter());
-		converters.add(new SCPSConverter());
-		EdgeWeightConverter converter = converters.get(0);
-                DistanceMatrix dm = new DistanceMatrix(dataAttributes, selectedOnly, converter);
-                nodes = dm.getNodes();
-                
+                // We only need the node list here, so don't build the edge distance matrix
+                CyNetwork network = Cytoscape.getCurrentNetwork();
+                if (!selectedOnly)
+                        nodes = (List<CyNode>)network.nodesList();
+                else
+                        nodes = new ArrayList<CyNode>(network.getSelectedNodes());
+
                 //edges = dm.getEdges();
 
-                s.input = new dataItem[matrix.nRows()];
                 //matrix.printMatrix();
 
                 Map<String, Integer> key = new HashMap<String, Integer>();
@@ -209,33 +202,20 @@ public class RunAutoSOME {
                     if(!key.containsKey(id)) key.put(id,i);
                 }
 
-                for(int k = 0, itor=0; k < matrix.nRows(); k++){
-                    float[] f = new float[matrix.nColumns()];
-                    //System.out.println(matrix.getRowLabels()[k]+" "+nodes.get(k).getIdentifier());
-                    if(k==0) {
-                        s.columnHeaders=new String[f.length+1];
-                        s.columnHeaders[0] = "NAME";
-                    }
-                    for(int l = 0; l < f.length; l++) {
-                        if(k==0) {
-                            s.columnHeaders[l+1] = matrix.getColLabel(l);
-                            s.columnHeaders[l+1] = s.columnHeaders[l+1].replace("\"","");
-                            s.columnHeaders[l+1] = s.columnHeaders[l+1].replace(",","");
-                            
-                            //System.out.println(s.columnHeaders[l+1]);
-                        }
-                        //System.out.println(matrix.getValue(k,l).floatValue());
-                        if(matrix.getValue(k,l)!=null) f[l] = matrix.getValue(k,l).floatValue();
-                        else {
-                            f[l] = -99999999;
-                            s.fillMissing=true;
-                        }
-                       
-                    }
-                    s.input[itor++] = new dataItem(f, matrix.getRowLabel(k));
+                s.columnHeaders=new String[matrix.nColumns()+1];
+                s.columnHeaders[0] = "NAME";
+                for(int l = 0; l < matrix.nColumns(); l++) {
+                    s.columnHeaders[l+1] = matrix.getColLabel(l);
+                    s.columnHeaders[l+1] = s.columnHeaders[l+1].replace("\"","");
+                    s.columnHeaders[l+1] = s.columnHeaders[l+1].replace(",","");
                 }
 
-                if(s.FCNrows && s.distMatrix) s = transpose(s);
+                // Read the matrix once into primitive rows that are shared with the data items
+                MatrixAdapter data = new MatrixAdapter(matrix);
+                if(data.hasMissing()) s.fillMissing=true;
+
+                if(s.FCNrows && s.distMatrix) s = transpose(s, data);
+                else s.input = data.getRowItems();
                 
                 
                 if(s.input == null){
@@ -481,33 +461,23 @@ public class RunAutoSOME {
             return edges;
         }
 
-        private Settings transpose(Settings s){
-
-
-            float[][] t = new float[s.input[0].getValues().length][s.input.length];
-
-            for(int i = 0; i < s.input.length; i++){
-                for(int j = 0; j < s.input[i].getValues().length; j++){
-                    t[j][i] = s.input[i].getValues()[j];
-                }
-            }
-
-            dataItem[] d = new dataItem[t.length];
+        private Settings transpose(Settings s, MatrixAdapter data){
 
-            for(int i = 0; i < d.length; i++){
+            String[] labels = new String[data.nColumns()];
+            for(int i = 0; i < labels.length; i++){
                 String label = new String();
                 if(s.columnHeaders!=null) if(s.columnHeaders[i+s.startData] != null) label = s.columnHeaders[i+s.startData].replace(" ","_");
-                d[i] = new dataItem(t[i], label);
+                labels[i] = label;
             }
 
-            String[] cols = new String[s.input.length+1];
+            String[] cols = new String[data.nRows()+1];
             cols[0] = "NAME";
 
-            for(int i = 0; i < s.input.length; i++){
-                cols[i+1] = s.input[i].getIdentity();
+            for(int i = 0; i < data.nRows(); i++){
+                cols[i+1] = data.getRowLabel(i);
             }
 
-            s.input = d;
+            s.input = data.getColumnItems(labels);
             s.columnHeaders=cols;
 
             return s;
@@ -32,6 +32,9 @@ import clusterMaker.algorithms.attributeClusterers.autosome.cluststruct.*;
 import java.util.*;
 import clusterMaker.algorithms.attributeClusterers.autosome.launch.Settings;
 import java.io.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import cytoscape.task.TaskMonitor;
 /**
  *
@@ -104,6 +107,9 @@ public class Ensemble {
 
             }else runs = cr.length;
             
+            //cluster the in-memory runs concurrently, they are independent of each other
+            boolean parallel = !s.writeTemp && nThreads() > 1;
+            if(parallel) findClustersParallel();
        
             for(int i = 0; i < runs; i++){
                 
@@ -119,10 +125,12 @@ public class Ensemble {
                     min = cRun.nodes.length;
                 }
             
-                getClusters gc = new getClusters(cRun,s);
-                gc.findClusters(general);
-                //  gc.getClusterValidity();
-                cRun.c = gc.getClust();
+                if(!parallel){
+                    getClusters gc = new getClusters(cRun,s);
+                    gc.findClusters(general);
+                    //  gc.getClusterValidity();
+                    cRun.c = gc.getClust();
+                }
 
                 if(s.writeTemp && i==0) cr[0]=cRun;
                // System.out.println(cRun.c.length);
@@ -143,6 +151,13 @@ public class Ensemble {
     private void equalizeClusterNumber(int ave){
      
             int runs = cr.length;
+
+            if(nThreads() > 1){
+                forEachIndex(runs, new IndexTask(){
+                    public void run(int i){ cr[i] = DoEqualize(cr[i]); }
+                });
+                return;
+            }
         
             for(int i = 0; i < runs; i++){
                 
@@ -188,7 +203,7 @@ public class Ensemble {
     
     //create fuzzy clustering of all cluster runs
     private clusterRun combineRuns(){
-       
+
         if(s.distMatrix) {
             System.out.println("initialize");
             if(s.writeTemp) cr[0] = DoEqualize(cr[0]);
@@ -219,6 +234,9 @@ public class Ensemble {
         
         clusterRun mega = new clusterRun();
         
+        //the runs are merged one at a time in order, only the overlap scores of a run are parallel
+        ExecutorService pool = (nThreads() > 1) ? Executors.newFixedThreadPool(nThreads()) : null;
+        
         try{
         
             int runs = 0;
@@ -244,21 +262,27 @@ public class Ensemble {
                 
                 if(i==0){
                      mega = cRun;
-                     mega.makeMembership(s); //create fuzzy cluster membership matrix
+                     mega.makeMembershipBits(s); //create fuzzy cluster membership counts
                      continue;        
                 }
                 
                 merged = new boolean[cRun.c.length];
                 for(int y = 0; y < merged.length; y++) merged[y] = false;
                 reLabel = new int[cRun.c.length];
-                mega.sumMembership();
+                mega.sumMembershipBits();
+                
+                for(int k = 0; k < cRun.c.length; k++){
+                    cRun.c[k].makeBits(mega.labelsSorted.length);
+                    if(s.distMatrix) addConsensus(cRun.c[k]);
+                }
+                double[][] common = commonPerc(pool, mega, cRun.c);
                 
                 for(int k = 0; k < cRun.c.length; k++){
                     double commonPerc = 0;
                     int pos = 0;
                     for(int q = 0; q < mega.c.length; q++){
                         if(merged[q]) continue;
-                        double comm = getCommonPerc(cRun.c[k], mega, q);
+                        double comm = common[k][q];
                         if(comm >= commonPerc) {commonPerc = comm; pos = q;}
                     }
                     
@@ -267,7 +291,7 @@ public class Ensemble {
                                      
                 }
               
-                mega = updateFuzzyClusters(mega, reLabel, i, cRun);
+                mega.addRun(cRun.c, reLabel);
                 monitor.setPercentCompleted((int)(100*((double)(i+1)/s.ensemble_runs)));
                 if(!s.batch) if(Math.floor((runCount++) %((double)(runs)/10)) == 0) {
                    // System.out.print("*");
@@ -281,7 +305,10 @@ public class Ensemble {
                     }         
             }
          }catch(IOException err){System.err.println(err);
-         }catch(ClassNotFoundException err2){System.err.println(err2);};
+         }catch(ClassNotFoundException err2){System.err.println(err2);
+         }finally{
+            if(pool != null) pool.shutdown();
+         }
             int currVal = 0;//jpb.jProgressBar1.getValue();
             
             if(progressCount < 10 && !s.batch){
@@ -291,6 +318,7 @@ public class Ensemble {
             }
 
           //  if(!s.batch) System.out.println("\n");
+            mega.makeMembershipFromBits();
             mega = fuzzyCluster(mega);                   
 
             getClusters gc = new getClusters(mega,s);
@@ -306,52 +334,83 @@ public class Ensemble {
 
     }
     
- 
-    
-    //return percent of common cluster membership between cluster p and cluster q in combined cluster mega
-    private double getCommonPerc(cluster p, clusterRun mega, int q){
-        double common = 0;
-        double countClustQ = mega.memTotal[q];
+    //percent of common membership between every cluster of a run and every cluster of mega,
+    //common[k][q] for cluster k of the run and cluster q of mega, one task per cluster of mega
+    private double[][] commonPerc(ExecutorService pool, final clusterRun mega, final cluster[] run){
+        final double[][] common = new double[run.length][mega.c.length];
+        IndexTask task = new IndexTask(){
+            public void run(int q){
+                for(int k = 0; k < run.length; k++) common[k][q] = mega.getCommonPerc(run[k], q);
+            }
+        };
+        if(pool == null){
+            for(int q = 0; q < mega.c.length; q++) task.run(q);
+        }else forEachIndex(pool, mega.c.length, task);
+        return common;
+    }
 
-        for(int i = 0; i < p.ids.size(); i++){
-   
-              double weight = mega.membership[Integer.valueOf(p.ids.get(i).toString())][q];
-              if(weight > 0) common+=(1+weight);   
+    //number of worker threads for per-run work; runs read from temp files are always handled serially
+    private int nThreads(){
+        if(s.writeTemp) return 1;
+        return Math.max(1, Math.min(s.threads, cr.length));
+    }
 
+    private interface IndexTask {
+        public void run(int i);
+    }
+
+    //run task for indices 0..n-1 on a pool of nThreads() workers and wait for all of them
+    private void forEachIndex(int n, final IndexTask task){
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(nThreads(), n)));
+        try{
+            forEachIndex(pool, n, task);
+        }finally{
+            pool.shutdown();
         }
-        
-        if(s.distMatrix){
-            for(int i = 0; i < p.ids.size(); i++){   
-                for(int j = 0; j < p.ids.size(); j++){
-                    int a = p.ids.get(i).intValue();
-                    int b = p.ids.get(j).intValue();
-                    if(added[a][b]) continue;
-                    consensusMatrix[a][b]++;
-                    added[a][b] = true;
-                }  
-            }
+    }
+
+    //run task for indices 0..n-1 on the given pool and wait for all of them
+    private void forEachIndex(ExecutorService pool, int n, final IndexTask task){
+        List<Future<?>> results = new ArrayList<Future<?>>(n);
+        for(int i = 0; i < n; i++){
+            final int index = i;
+            results.add(pool.submit(new Runnable(){
+                public void run(){ task.run(index); }
+            }));
         }
+        try{
+            for(Future<?> f: results) f.get();
+        }catch(Exception err){
+            throw new RuntimeException(err);
+        }
+    }
 
-        return common/(p.ids.size()+countClustQ);
+    //find the clusters of every in-memory run concurrently
+    private void findClustersParallel(){
+        forEachIndex(cr.length, new IndexTask(){
+            public void run(int i){
+                getClusters gc = new getClusters(cr[i],s);
+                gc.findClusters(general);
+                cr[i].c = gc.getClust();
+            }
+        });
     }
+ 
     
-    //update combined cluster 'mega' with current cluster j
-    private clusterRun updateFuzzyClusters(clusterRun mega, int[] reLabel, int j, clusterRun cRun){
-        
-        mega.updateFuzzy((double)j/(j+1));
-   
-        for(int i = 0; i < cRun.c.length; i++){
-            int index = reLabel[i];
-            for(int k = 0; k < cRun.c[i].ids.size(); k++){
-                int id = cRun.c[i].ids.get(k).intValue();
-                mega.membership[id][index] += (double)1/(j+1);
-            }
+    //count the co-membership of every pair of items in cluster p in the consensus matrix
+    private void addConsensus(cluster p){
+        for(int i = 0; i < p.ids.size(); i++){   
+            for(int j = 0; j < p.ids.size(); j++){
+                int a = p.ids.get(i).intValue();
+                int b = p.ids.get(j).intValue();
+                if(added[a][b]) continue;
+                consensusMatrix[a][b]++;
+                added[a][b] = true;
+            }  
         }
-
-        return mega;
     }
-    
    
+    
     //create final clustering: resolve fuzzy cluster
     private clusterRun fuzzyCluster(clusterRun mega){
 //        cytoscapeOut(mega);
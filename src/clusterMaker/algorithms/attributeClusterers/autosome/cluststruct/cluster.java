@@ -45,6 +45,7 @@ import java.util.*;
       public int parentID = -1; //primary cluster identifier
       public int childID = -1; //secondary cluster identifier
       public String finalID = new String(); //string version of final cluster identifier
+      public long[] bits; //bitset of label ids, one bit per data item
       
       public cluster(){};
       public cluster(List<double[]> indices, List<String> labels, List<Integer> ids, List<Integer> nodeIndices){
@@ -68,6 +69,16 @@ import java.util.*;
       public List<double[]> getIndices() {return indices;}
       public void addData(double[] o) {indices.add(o);}
       public void setSize() {size = ids.size();}
+
+      //build the bitset of member ids for a data set with n items
+      public long[] makeBits(int n){
+          bits = new long[(n+63) >>> 6];
+          for(int i = 0; i < ids.size(); i++){
+              int id = ids.get(i).intValue();
+              bits[id >>> 6] |= 1L << id;
+          }
+          return bits;
+      }
             
       public int compareTo(Object o){
            double size2 = ((cluster)o).size;
@@ -45,6 +45,9 @@ public class clusterRun implements Serializable{
     public String[] labelsSorted;
     public double[][] membership;
     public double[] memTotal; //sum of fractional membership for each cluster
+    public long[][][] countBits; //bit-sliced membership counts: [cluster][bit plane][data word]
+    public int runCount = 0; //number of cluster runs summed into countBits
+    private transient long[][] supportBits; //data items with non-zero membership for each cluster
     public float[][] DEC; //density equalized cartogram
     public double thresh; //p-value threshold for pruning tree
     public cluster[] c; //all clusters for current run
@@ -104,6 +107,124 @@ public class clusterRun implements Serializable{
         }
     }
     
+    //create fuzzy cluster membership counts (as bitsets) from the clusters of this run
+    public void makeMembershipBits(Settings s){
+        int dataCount = 0;
+        for(int i = 0; i < c.length; i++) dataCount += c[i].ids.size();
+
+        labelsSorted = new String[dataCount];
+        countBits = new long[c.length][][];
+        for(int i = 0; i < c.length; i++){
+            for(int j = 0; j < c[i].ids.size(); j++){
+                int id = c[i].ids.get(j).intValue();
+                labelsSorted[id] = s.input[id].toString();
+            }
+            countBits[i] = new long[][]{c[i].makeBits(dataCount).clone()};
+        }
+        runCount = 1;
+    }
+
+    //add the clusters of another run, relabelled to this run's clusters, to the membership counts
+    public void addRun(cluster[] clusters, int[] reLabel){
+        for(int k = 0; k < clusters.length; k++)
+            countBits[reLabel[k]] = addBits(countBits[reLabel[k]], clusters[k].bits, 0);
+        runCount++;
+    }
+
+    //bit-sliced ripple carry addition of bits (with weight 2^plane) to the counter planes
+    private static long[][] addBits(long[][] planes, long[] bits, int plane){
+        long[] carry = bits.clone();
+        boolean any = true;
+        for(int b = plane; any; b++){
+            while(planes.length <= b){
+                planes = Arrays.copyOf(planes, planes.length+1);
+                planes[planes.length-1] = new long[carry.length];
+            }
+            any = false;
+            long[] p = planes[b];
+            for(int w = 0; w < p.length; w++){
+                long t = p[w] & carry[w];
+                p[w] ^= carry[w];
+                carry[w] = t;
+                if(t != 0) any = true;
+            }
+        }
+        return planes;
+    }
+
+    //sum of 2^b * |plane b AND mask| over all planes, i.e. the summed counts of the items in mask
+    private static long weightedCount(long[][] planes, long[] mask){
+        long total = 0;
+        for(int b = 0; b < planes.length; b++){
+            long count = 0;
+            for(int w = 0; w < planes[b].length; w++)
+                count += Long.bitCount(mask == null ? planes[b][w] : planes[b][w] & mask[w]);
+            total += count << b;
+        }
+        return total;
+    }
+
+    //bitset version of sumMembership(): memTotal counts the items that were in cluster i for every run
+    public void sumMembershipBits(){
+        memTotal = new double[countBits.length];
+        supportBits = new long[countBits.length][];
+        for(int i = 0; i < countBits.length; i++){
+            long[][] planes = countBits[i];
+            int words = planes[0].length;
+            long[] support = new long[words];
+            long[] core = new long[words];
+            Arrays.fill(core, -1L);
+            for(int b = 0; b < planes.length; b++){
+                boolean set = ((runCount >>> b) & 1) != 0;
+                for(int w = 0; w < words; w++){
+                    support[w] |= planes[b][w];
+                    core[w] &= set ? planes[b][w] : ~planes[b][w];
+                }
+            }
+            if((runCount >>> planes.length) != 0) Arrays.fill(core, 0L);
+            int count = 0;
+            for(int w = 0; w < words; w++) count += Long.bitCount(core[w] & support[w]);
+            memTotal[i] = count;
+            supportBits[i] = support;
+        }
+    }
+
+    //percent of common membership between cluster p of a single run and cluster q
+    public double getCommonPerc(cluster p, int q){
+        return getCommonPerc(new long[][]{p.bits}, 1, q);
+    }
+
+    //each item counts (1 + its membership in q) if it belongs to q at all, scaled by its own
+    //membership in the other cluster; for a single run this is the classic AutoSOME overlap
+    private double getCommonPerc(long[][] planes, int runs, int q){
+        long[][] mine = countBits[q];
+        double common = weightedCount(planes, supportBits[q]);
+        double cross = 0;
+        for(int b = 0; b < mine.length; b++) cross += (double)(weightedCount(planes, mine[b]) << b);
+        common += cross/runCount;
+        double size = weightedCount(planes, null);
+        return (common/runs)/(size/runs+memTotal[q]);
+    }
+
+    //expand the membership counts into the fractional membership matrix
+    public void makeMembershipFromBits(){
+        membership = new double[labelsSorted.length][countBits.length];
+        for(int q = 0; q < countBits.length; q++){
+            for(int b = 0; b < countBits[q].length; b++){
+                long[] plane = countBits[q][b];
+                for(int w = 0; w < plane.length; w++){
+                    long word = plane[w];
+                    while(word != 0){
+                        int id = (w << 6) + Long.numberOfTrailingZeros(word);
+                        membership[id][q] += 1 << b;
+                        word &= word-1;
+                    }
+                }
+            }
+            for(int i = 0; i < membership.length; i++) membership[i][q] /= runCount;
+        }
+    }
+
     public void updateFuzzy(double d){
         for(int i = 0; i < membership.length; i++){
             for(int j = 0; j < membership[i].length; j++){
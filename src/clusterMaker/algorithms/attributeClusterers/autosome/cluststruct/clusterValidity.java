@@ -13,6 +13,9 @@ package clusterMaker.algorithms.attributeClusterers.autosome.cluststruct;
 
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import clusterMaker.algorithms.attributeClusterers.autosome.launch.Settings;
 /**
  *
@@ -24,12 +27,18 @@ public class clusterValidity {
     ArrayList[] clusters;
     List<Integer>[] clustData;
     Settings s;
+
+    private int n = 0; //number of clustered items
+    private int[] clusterSize;
+    private int[] origSize;
+    private int[][] hits; //contingency table, clusters x known classes
     
     public clusterValidity(ArrayList[] orig, ArrayList[] clusters,List<Integer>[] clustData, Settings s){
         this.orig = orig;
         this.clusters  = clusters;
         this.clustData = clustData;
         this.s = s;
+        makeContingencyTable();
     }
     
     public clusterValidity(ArrayList[] orig, cluster[] c, Settings s){
@@ -43,38 +52,47 @@ public class clusterValidity {
             clustData[i] = c[i].ids;
             for(int j = 0; j < c[i].ids.size(); j++){
                 double[] d = new double[1];
-                String[] tokens = s.input[Integer.valueOf(c[i].ids.get(j).toString())].getIdentity().split(",");
+                String[] tokens = s.input[c[i].ids.get(j).intValue()].getIdentity().split(",");
                 d[0] = Integer.valueOf(tokens[0]);
                 clusters[i].add(d);
             }
         }
+        makeContingencyTable();
     }
-    
-    public double[] Fmeasure(){
-        double F = 0;
-        int n = 0;
-        
-        int[][] hits = new int[clusters.length][orig.length];
-        
+
+    //count the items of each cluster in each known class, once
+    private void makeContingencyTable(){
+        for(int i = 0; i < clusters.length; i++) n += clusters[i].size();
+
+        clusterSize = new int[clusters.length];
+        origSize = new int[orig.length];
+        hits = new int[clusters.length][orig.length];
+
+        for(int g = 0; g < orig.length; g++) origSize[g] = orig[g].size();
+
         for(int i = 0; i < clusters.length; i++){
+            clusterSize[i] = clusters[i].size();
             for(int j = 0; j < clusters[i].size(); j++){
-                n++;
                 double[] id = (double[]) clusters[i].get(j);
-                hits[i][(int)id[0]-1]++;
+                hits[i][(int)id[0]-1]++; //known (benchmark) classes are 1-based
             }
         }
+    }
+    
+    public double[] Fmeasure(){
+        double F = 0;
         
         double avePrec = 0;
         double aveRec = 0;
         //System.out.println("n "+n);
-        for(int i = 0; i < orig.length; i++){
+        for(int i = 0; i < origSize.length; i++){
             double Fj = 0;
             double Fp = 0;
             double Fr = 0;
-            for(int j = 0; j < clusters.length; j++){
-                if(clusters[j].size() == 0) continue;
-                double prec = (double)hits[j][i]/(double)clusters[j].size();
-                double rec = (double)hits[j][i]/(double)orig[i].size();
+            for(int j = 0; j < clusterSize.length; j++){
+                if(clusterSize[j] == 0) continue;
+                double prec = (double)hits[j][i]/(double)clusterSize[j];
+                double rec = (double)hits[j][i]/(double)origSize[i];
                 double temp = (2 * prec * rec) / (prec + rec);
                 //System.out.println(i+" "+j+" "+prec+" "+hits[j][i]+" "+((double)hits[j][i]/n)+" "+clusters[j].size());
                 if(temp > Fj) {
@@ -85,9 +103,9 @@ public class clusterValidity {
 
             }
 
-            F += ((double)orig[i].size() / n) * Fj;
-            avePrec += ((double)orig[i].size() / n) * Fp;
-            aveRec += ((double)orig[i].size() / n) * Fr;
+            F += ((double)origSize[i] / n) * Fj;
+            avePrec += ((double)origSize[i] / n) * Fp;
+            aveRec += ((double)origSize[i] / n) * Fr;
         }
         //System.out.println("F:\t"+F+"\tPrec:"+avePrec+"\tRecall:"+aveRec);
         double[] all = new double[]{F,avePrec,aveRec};
@@ -98,38 +116,27 @@ public class clusterValidity {
     public double NMI(){
         double NMI = 0;
         
-        int n = 0;
-        
-        int[][] hits = new int[clusters.length][orig.length];
-        
-        for(int i = 0; i < clusters.length; i++){
-            for(int j = 0; j < clusters[i].size(); j++){
-                n++;
-                double[] id = (double[]) clusters[i].get(j);
-                hits[i][(int)id[0]-1]++;
-            }
-        }
         double numerator = 0;
         double denominator1 = 0, denominator2 = 0;
-        for(int k = 0; k < clusters.length; k++){
-            if(clusters[k].size() == 0) continue;
-            for(int g = 0; g < orig.length; g++){
+        for(int k = 0; k < clusterSize.length; k++){
+            if(clusterSize[k] == 0) continue;
+            for(int g = 0; g < origSize.length; g++){
                 double nlh = hits[k][g];          
-                double nstarh = orig[g].size();
-                double nlstar = clusters[k].size();
+                double nstarh = origSize[g];
+                double nlstar = clusterSize[k];
                 //System.out.println(k+" "+g+" "+nlh+" "+n+" "+nstarh+" "+nlstar);
                 double add = (nlh*(Math.log((nlh*n)/(nstarh*nlstar))/Math.log(2)));
                 if(Double.isNaN(add)) add = 0;
                 numerator += add;
             }
         }
-        for(int g = 0; g < orig.length; g++){
-                double nstarh = orig[g].size();
+        for(int g = 0; g < origSize.length; g++){
+                double nstarh = origSize[g];
                 denominator1 += (nstarh*(Math.log(nstarh/n)/Math.log(2)));
         }
-        for(int k = 0; k < clusters.length; k++){
-             if(clusters[k].size() == 0) continue;
-             double nlstar = clusters[k].size();
+        for(int k = 0; k < clusterSize.length; k++){
+             if(clusterSize[k] == 0) continue;
+             double nlstar = clusterSize[k];
              denominator2 += (nlstar*(Math.log(nlstar/n)/Math.log(2)));
         }
        // System.out.println(numerator+"  *"+denominator1+" "+denominator2);
@@ -143,31 +150,20 @@ public class clusterValidity {
     
      public double adjRand(){
         double adjRand = 0;
-        int n = 0;
-        
-        int[][] hits = new int[clusters.length][orig.length];
-        
-        for(int i = 0; i < clusters.length; i++){
-            for(int j = 0; j < clusters[i].size(); j++){
-                n++;
-                double[] id = (double[]) clusters[i].get(j);
-                hits[i][(int)id[0]-1]++;
-            }
-        }
         int nijF = 0;
         int niF = 0;
         int njF = 0;
 
         double nF = Math.pow(factorial(n) / 2,-1);
         
-        for(int i = 0; i < clusters.length; i++){
-            niF += factorial(clusters[i].size()) / 2 ;
+        for(int i = 0; i < clusterSize.length; i++){
+            niF += factorial(clusterSize[i]) / 2 ;
         }
-        for(int j = 0; j < orig.length; j++){
-            njF += factorial(orig[j].size()) / 2;
+        for(int j = 0; j < origSize.length; j++){
+            njF += factorial(origSize[j]) / 2;
         }
-        for(int i = 0; i < clusters.length; i++){
-            for(int j = 0; j < orig.length; j++){
+        for(int i = 0; i < clusterSize.length; i++){
+            for(int j = 0; j < origSize.length; j++){
                 nijF += factorial(hits[i][j]) / 2;
             }
         }
@@ -185,21 +181,13 @@ public class clusterValidity {
         return f;
     }
     
+    //minimum distance between cluster centroids (node coordinates are stored at positions 1-3)
     public double DunnIndex(){
         double Dunn = Double.MAX_VALUE;
         
         double[][] centroid = new double[clusters.length][3];
         
         for(int i = 0; i < clusters.length; i++){
-            double maxR = 0;
-            for(int j = 0; j < clusters[i].size()-1; j++){
-                for(int k = j+1; k < clusters[i].size(); k++){
-                    double[] coor1 = (double[])clusters[i].get(j);
-                    double[] coor2 = (double[])clusters[i].get(k);
-                    double dist = Euc(coor1, coor2, true);
-                    if(dist > maxR) maxR = dist;
-                }
-            }
             double x = 0, y = 0, z = 0;
             for(int w = 0; w < clusters[i].size(); w++){
                 double[] coor = (double[])clusters[i].get(w);
@@ -221,6 +209,60 @@ public class clusterValidity {
         
         return Dunn;
     }
+
+    //Dunn index (smallest distance between items of different clusters over the largest cluster
+    //diameter) from a distance matrix indexed by data id, which may be shared between runs.
+    //Rows are split over s.threads workers
+    public double DunnIndex(final double[][] dist){
+        final int[] idLabel = new int[dist.length];
+        Arrays.fill(idLabel, -1);
+        for(int i = 0; i < clustData.length; i++)
+            for(int j = 0; j < clustData[i].size(); j++) idLabel[clustData[i].get(j).intValue()] = i;
+
+        final int threads = Math.max(1, Math.min((s != null && s.threads > 0) ? s.threads : Runtime.getRuntime().availableProcessors(), dist.length));
+        final double[] diameter = new double[threads];
+        final double[] separation = new double[threads];
+        Arrays.fill(separation, Double.MAX_VALUE);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        for(int t = 0; t < threads; t++){
+            final int thread = t;
+            results.add(pool.submit(new Runnable(){
+                public void run(){
+                    double maxIn = 0, minOut = Double.MAX_VALUE;
+                    //stride the rows so that every worker gets a similar share of the triangle
+                    for(int i = thread; i < dist.length; i += threads){
+                        int a = idLabel[i];
+                        if(a < 0) continue;
+                        for(int j = i+1; j < dist.length; j++){
+                            int b = idLabel[j];
+                            if(b < 0) continue;
+                            double d = dist[i][j];
+                            if(a == b) { if(d > maxIn) maxIn = d; }
+                            else if(d < minOut) minOut = d;
+                        }
+                    }
+                    diameter[thread] = maxIn;
+                    separation[thread] = minOut;
+                }
+            }));
+        }
+        pool.shutdown();
+        try{
+            for(Future<?> f: results) f.get();
+        }catch(Exception err){
+            throw new RuntimeException(err);
+        }
+
+        double maxDiameter = 0, minSeparation = Double.MAX_VALUE;
+        for(int t = 0; t < threads; t++){
+            maxDiameter = Math.max(maxDiameter, diameter[t]);
+            minSeparation = Math.min(minSeparation, separation[t]);
+        }
+        if(maxDiameter == 0) return Double.MAX_VALUE;
+        return minSeparation/maxDiameter;
+    }
     
     
     
@@ -0,0 +1,352 @@
+/* vim: set ts=2: */
+/**
+ * Copyright (c) 2008 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions, and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions, and the following
+ *      disclaimer in the documentation and/or other materials provided
+ *      with the distribution.
+ *   3. Redistributions must acknowledge that this software was
+ *      originally developed by the UCSF Computer Graphics Laboratory
+ *      under support by the NIH National Center for Research Resources,
+ *      grant P41-RR01081.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE REGENTS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package clusterMaker.algorithms.attributeClusterers.hierarchical;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CFTree is a BIRCH clustering-feature tree.  Rows are streamed into the tree
+ * one at a time, and each row is absorbed into the closest leaf subcluster
+ * as long as that keeps the subcluster's radius (the root mean square
+ * deviation of its values from the centroid) under the threshold.  Each
+ * subcluster only keeps its count, linear sum and sum of squares for each
+ * column, plus the list of rows it holds, so very large data sets can be
+ * summarized in one pass.  If the tree ends up with more than maxLeaves
+ * subclusters, the threshold is doubled and the tree is rebuilt from its
+ * subclusters.  Missing values (NaN) are left out of the sums.
+ *
+ * See Zhang, T., Ramakrishnan, R., and Livny, M. (1996). BIRCH: an efficient
+ * data clustering method for very large databases. SIGMOD '96: 103-114.
+ */
+class CFTree {
+	// Maximum number of entries in a node
+	static final int BRANCHING = 50;
+	// Number of times we'll raise the threshold before we give up
+	static final int MAX_REBUILDS = 32;
+
+	private final int nColumns;
+	private final int maxLeaves;
+	private double threshold;
+	private Node root;
+	private int nLeaves;
+
+	/**
+ 	 * Create an empty tree
+ 	 *
+ 	 * @param nColumns the number of values in each row
+ 	 * @param threshold the largest radius of a subcluster
+ 	 * @param maxLeaves the most subclusters we want to end up with
+ 	 */
+	public CFTree(int nColumns, double threshold, int maxLeaves) {
+		this.nColumns = nColumns;
+		this.threshold = threshold;
+		this.maxLeaves = maxLeaves;
+		this.root = new Node(true);
+		this.nLeaves = 0;
+	}
+
+	/**
+ 	 * Add a row to the tree
+ 	 *
+ 	 * @param row the index of the row
+ 	 * @param values the values of the row, with NaN for missing values
+ 	 */
+	public void insert(int row, double[] values) {
+		insert(new Feature(row, values));
+		if (nLeaves > maxLeaves)
+			rebuild();
+	}
+
+	/**
+ 	 * Get the threshold, which may have grown while rows were added
+ 	 */
+	public double getThreshold() { return threshold; }
+
+	/**
+ 	 * Get the subclusters.  Subclusters that are close together in the tree
+ 	 * are close together in the list.
+ 	 */
+	public List<Feature> getLeaves() {
+		List<Feature> leaves = new ArrayList<Feature>(nLeaves);
+		getLeaves(root, leaves);
+		return leaves;
+	}
+
+	private void getLeaves(Node node, List<Feature> leaves) {
+		for (Feature entry: node.entries) {
+			if (node.leaf)
+				leaves.add(entry);
+			else
+				getLeaves(entry.child, leaves);
+		}
+	}
+
+	private void insert(Feature feature) {
+		Node[] split = insert(root, feature);
+		if (split != null) {
+			root = new Node(false);
+			root.entries.add(summarize(split[0]));
+			root.entries.add(summarize(split[1]));
+		}
+	}
+
+	/*
+	 * Insert a feature below node, returning the two halves of the node if
+	 * it had to be split
+	 */
+	private Node[] insert(Node node, Feature feature) {
+		Feature closest = closest(node, feature);
+		if (node.leaf) {
+			if (closest != null && closest.radius(feature) <= threshold) {
+				closest.add(feature);
+				closest.addMembers(feature);
+				return null;
+			}
+			node.entries.add(feature);
+			nLeaves++;
+		} else {
+			Node[] split = insert(closest.child, feature);
+			if (split == null) {
+				closest.add(feature);
+				return null;
+			}
+			node.entries.remove(closest);
+			node.entries.add(summarize(split[0]));
+			node.entries.add(summarize(split[1]));
+		}
+
+		if (node.entries.size() <= BRANCHING)
+			return null;
+		return split(node);
+	}
+
+	/*
+	 * Find the entry with the closest centroid.  For leaves, we only want an
+	 * entry that shares some columns with the feature.  Non-leaf nodes always
+	 * have to return something.
+	 */
+	private Feature closest(Node node, Feature feature) {
+		Feature closest = null;
+		double minDistance = Double.MAX_VALUE;
+		for (Feature entry: node.entries) {
+			double distance = entry.distance(feature);
+			if (distance < minDistance) {
+				minDistance = distance;
+				closest = entry;
+			}
+		}
+		if (closest == null && !node.leaf && node.entries.size() > 0)
+			closest = node.entries.get(0);
+		return closest;
+	}
+
+	/*
+	 * Split a node in two, using the two entries furthest apart as seeds
+	 */
+	private Node[] split(Node node) {
+		List<Feature> entries = node.entries;
+		int seed1 = 0;
+		int seed2 = 1;
+		double maxDistance = -1.0;
+		for (int i = 0; i < entries.size(); i++) {
+			for (int j = i+1; j < entries.size(); j++) {
+				double distance = entries.get(i).distance(entries.get(j));
+				if (distance > maxDistance) {
+					maxDistance = distance;
+					seed1 = i;
+					seed2 = j;
+				}
+			}
+		}
+
+		Node[] split = {new Node(node.leaf), new Node(node.leaf)};
+		Feature f1 = entries.get(seed1);
+		Feature f2 = entries.get(seed2);
+		for (int i = 0; i < entries.size(); i++) {
+			Feature entry = entries.get(i);
+			if (i == seed1)
+				split[0].entries.add(entry);
+			else if (i == seed2)
+				split[1].entries.add(entry);
+			else if (f1.distance(entry) <= f2.distance(entry))
+				split[0].entries.add(entry);
+			else
+				split[1].entries.add(entry);
+		}
+		return split;
+	}
+
+	private Feature summarize(Node node) {
+		Feature summary = new Feature(nColumns);
+		for (Feature entry: node.entries)
+			summary.add(entry);
+		summary.child = node;
+		return summary;
+	}
+
+	/*
+	 * Raise the threshold and reinsert the subclusters until we have few
+	 * enough of them.
+	 */
+	private void rebuild() {
+		for (int tries = 0; tries < MAX_REBUILDS && nLeaves > maxLeaves*3/4; tries++) {
+			List<Feature> leaves = getLeaves();
+			threshold *= 2.0;
+			root = new Node(true);
+			nLeaves = 0;
+			for (Feature leaf: leaves)
+				insert(leaf);
+		}
+	}
+
+	static class Node {
+		final boolean leaf;
+		final List<Feature> entries = new ArrayList<Feature>(BRANCHING+1);
+
+		Node(boolean leaf) {
+			this.leaf = leaf;
+		}
+	}
+
+	/**
+ 	 * A clustering feature: the summary of a subcluster, or of all of the
+ 	 * subclusters below a node.
+ 	 */
+	static class Feature {
+		final double[] count;
+		final double[] sum;
+		final double[] sumSq;
+		Node child = null;
+		// The rows in the subcluster (only for leaves)
+		int[] members = null;
+		int nMembers = 0;
+
+		Feature(int nColumns) {
+			count = new double[nColumns];
+			sum = new double[nColumns];
+			sumSq = new double[nColumns];
+		}
+
+		Feature(int row, double[] values) {
+			this(values.length);
+			for (int column = 0; column < values.length; column++) {
+				double value = values[column];
+				if (Double.isNaN(value))
+					continue;
+				count[column] = 1.0;
+				sum[column] = value;
+				sumSq[column] = value*value;
+			}
+			members = new int[] {row};
+			nMembers = 1;
+		}
+
+		void add(Feature feature) {
+			for (int column = 0; column < count.length; column++) {
+				count[column] += feature.count[column];
+				sum[column] += feature.sum[column];
+				sumSq[column] += feature.sumSq[column];
+			}
+		}
+
+		void addMembers(Feature feature) {
+			if (nMembers + feature.nMembers > members.length) {
+				int[] newMembers = new int[Math.max(nMembers + feature.nMembers, members.length*2)];
+				System.arraycopy(members, 0, newMembers, 0, nMembers);
+				members = newMembers;
+			}
+			System.arraycopy(feature.members, 0, members, nMembers, feature.nMembers);
+			nMembers += feature.nMembers;
+		}
+
+		/**
+ 		 * Get the rows in this subcluster
+ 		 */
+		int[] getMembers() {
+			int[] result = new int[nMembers];
+			System.arraycopy(members, 0, result, 0, nMembers);
+			return result;
+		}
+
+		/**
+ 		 * Get the centroid, with NaN for columns that have no values
+ 		 */
+		double[] getCentroid() {
+			double[] centroid = new double[count.length];
+			for (int column = 0; column < count.length; column++)
+				centroid[column] = count[column] > 0.0 ? sum[column]/count[column] : Double.NaN;
+			return centroid;
+		}
+
+		/*
+		 * Mean squared difference between the centroids, over the columns they
+		 * both have values for
+		 */
+		double distance(Feature feature) {
+			double total = 0.0;
+			int shared = 0;
+			for (int column = 0; column < count.length; column++) {
+				if (count[column] == 0.0 || feature.count[column] == 0.0)
+					continue;
+				double diff = sum[column]/count[column] - feature.sum[column]/feature.count[column];
+				total += diff*diff;
+				shared++;
+			}
+			if (shared == 0)
+				return Double.MAX_VALUE;
+			return total/shared;
+		}
+
+		/*
+		 * The radius this subcluster would have if the feature were added to it
+		 */
+		double radius(Feature feature) {
+			double total = 0.0;
+			int columns = 0;
+			for (int column = 0; column < count.length; column++) {
+				double n = count[column] + feature.count[column];
+				if (n == 0.0)
+					continue;
+				double mean = (sum[column] + feature.sum[column])/n;
+				double variance = (sumSq[column] + feature.sumSq[column])/n - mean*mean;
+				if (variance > 0.0)
+					total += variance;
+				columns++;
+			}
+			if (columns == 0)
+				return 0.0;
+			return Math.sqrt(total/columns);
+		}
+	}
+}
@@ -32,6 +32,7 @@
  */
 package clusterMaker.algorithms.attributeClusterers.hierarchical;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -51,7 +52,9 @@ import cytoscape.groups.CyGroupManager;
 
 import clusterMaker.ClusterMaker;
 import clusterMaker.algorithms.attributeClusterers.AbstractAttributeClusterAlgorithm;
+import clusterMaker.algorithms.attributeClusterers.DistanceMatrixService;
 import clusterMaker.algorithms.attributeClusterers.DistanceMetric;
+import clusterMaker.algorithms.attributeClusterers.IncrementalClusterModel;
 import clusterMaker.algorithms.attributeClusterers.Matrix;
 
 // clusterMaker imports
@@ -60,8 +63,19 @@ public class EisenCluster extends AbstractAttributeClusterAlgorithm {
 	final static int IS = 0;
 	final static int JS = 1;
 
+	// Most subclusters we'll build a tree over when pre-clustering
+	final static int MAX_SUBCLUSTERS = 5000;
+	// Largest set of rows we'll cluster exactly within a subcluster
+	final static int MAX_EXACT = 2000;
+
 	// Instance variables
 	ClusterMethod clusterMethod;
+	// Radius for pre-clustering rows in a CF-tree (0 means don't pre-cluster)
+	double cfThreshold = 0.0;
+	// Do average linkage from distances on disk
+	boolean outOfCore = false;
+	// Keep the distance matrix between runs (see DistanceMatrixService)
+	boolean reuseDistances = false;
 
 	public EisenCluster(String weightAttributes[], DistanceMetric metric, 
 	                    ClusterMethod clusterMethod, CyLogger log, TaskMonitor monitor) {
@@ -73,6 +87,10 @@ public class EisenCluster extends AbstractAttributeClusterAlgorithm {
 		resetAttributes();
 	}
 
+	public void setCFThreshold(double val) { cfThreshold = val; }
+	public void setOutOfCore(boolean val) { outOfCore = val; }
+	public void setReuseDistances(boolean val) { reuseDistances = val; }
+
 	public String cluster(int nClusters, int nIterations, boolean transpose) { 
 		String keyword = "GENE";
 		if (transpose) keyword = "ARRY";
@@ -84,6 +102,11 @@ public class EisenCluster extends AbstractAttributeClusterAlgorithm {
 		if (monitor != null) 
 			monitor.setStatus("Creating distance matrix");
 
+		// Any node attribute that changes from here on has to be recomputed next time
+		if (useDistanceService(transpose))
+			DistanceMatrixService.getService().beginRun(Cytoscape.getCurrentNetwork().getIdentifier(),
+			                                            getNodeAttributes());
+
 		// Create the matrix
 		matrix = new Matrix(weightAttributes, transpose, ignoreMissing, selectedOnly);
 
@@ -102,9 +125,15 @@ public class EisenCluster extends AbstractAttributeClusterAlgorithm {
 			monitor.setStatus("Clustering...");
 
 		// Cluster
-		TreeNode[] nodeList = treeCluster(matrix, metric, clusterMethod);
+		TreeNode[] nodeList;
+		if (cfThreshold > 0.0 && !matrix.isSymmetrical())
+			nodeList = cfCluster(matrix, metric, clusterMethod);
+		else
+			nodeList = treeCluster(matrix, metric, clusterMethod);
 		if (nodeList == null || nodeList.length == 0) logger.error("treeCluster returned empty tree!");
+		if (nodeList == null) return "Failed";
 
+		double treeScale = 1.0;
 		if (metric == DistanceMetric.EUCLIDEAN || metric == DistanceMetric.CITYBLOCK) {
 			// Normalize distances to between 0 and 1
 			double scale = 0.0;
@@ -112,6 +141,7 @@ public class EisenCluster extends AbstractAttributeClusterAlgorithm {
 				if (nodeList[node].getDistance() > scale) scale = nodeList[node].getDistance();
 			}
 			if (scale != 0.0) {
+				treeScale = scale;
 				for (int node = 0; node < nodeList.length; node++) {
 					double dist = nodeList[node].getDistance();
 					nodeList[node].setDistance(dist/scale);
@@ -196,6 +226,15 @@ public class EisenCluster extends AbstractAttributeClusterAlgorithm {
 			netAttr.setListAttribute(netID, ClusterMaker.GROUP_ATTRIBUTE, groupNames);
 		}
 
+		// Remember the leaves so that new nodes can be added without starting over.
+		// This comes after the groups, so their nodes aren't taken for new ones
+		if (!matrix.isTransposed() && !matrix.isSymmetrical()) {
+			String netID = Cytoscape.getCurrentNetwork().getIdentifier();
+			IncrementalClusterModel.setModel(netID, 
+			    IncrementalClusterModel.treeModel("hierarchical", weightAttributes, matrix, metric,
+			                                      zeroMissing, treeScale, nodeList.length));
+		}
+
 		return "Complete";
 	}
 
@@ -203,7 +242,64 @@ public class EisenCluster extends AbstractAttributeClusterAlgorithm {
 
 		if (debug)
 			matrix.printMatrix();
-		double[][] distanceMatrix = matrix.getDistanceMatrix(metric);
+
+		// Average linkage can work from sorted distances on disk, so we never
+		// need the whole matrix in memory
+		if (outOfCore && clusterMethod == ClusterMethod.AVERAGE_LINKAGE) {
+			if (debug) 
+				logger.debug("Calculating average linkage hierarchical cluster on disk");
+			try {
+				return new ExternalAverageLinkage(matrix, metric).cluster();
+			} catch (IOException e) {
+				logger.error("Unable to write distances to disk: "+e.getMessage());
+				return null;
+			}
+		}
+
+		// In single precision mode, the linkages that work directly from the
+		// distance matrix keep it as floats.  Centroid linkage recomputes
+		// distances as it merges rows, so it always uses doubles.
+		boolean useFloats = singlePrecision && clusterMethod != ClusterMethod.CENTROID_LINKAGE;
+		// Single linkage only reads the distances, so it can use a kept matrix
+		// without copying it
+		boolean readOnly = clusterMethod == ClusterMethod.SINGLE_LINKAGE;
+
+		DistanceMatrixService.Snapshot snapshot = null;
+		if (matrix == this.matrix && useDistanceService(matrix.isTransposed()) && !matrix.isSymmetrical()) {
+			String netID = Cytoscape.getCurrentNetwork().getIdentifier();
+			snapshot = DistanceMatrixService.getService().getDistanceMatrix(netID, "zeroMissing="+zeroMissing,
+			                                                                matrix, metric, useFloats);
+			if (debug)
+				logger.debug("Using version "+snapshot.getVersion()+" of the distance matrix");
+		}
+
+		try {
+			if (useFloats) {
+				float[][] floatMatrix;
+				if (snapshot == null)
+					floatMatrix = matrix.getFloatDistanceMatrix(metric);
+				else if (readOnly)
+					floatMatrix = snapshot.getFloatDistances();
+				else
+					floatMatrix = snapshot.copyFloatDistances();
+				return treeCluster(matrix, floatMatrix, clusterMethod);
+			}
+
+			double[][] distanceMatrix;
+			if (snapshot == null)
+				distanceMatrix = matrix.getDistanceMatrix(metric);
+			else if (readOnly)
+				distanceMatrix = snapshot.getDistances();
+			else
+				distanceMatrix = snapshot.copyDistances();
+			return treeCluster(matrix, distanceMatrix, clusterMethod);
+		} finally {
+			if (snapshot != null)
+				snapshot.release();
+		}
+	}
+
+	private TreeNode[] treeCluster(Matrix matrix, double[][] distanceMatrix, ClusterMethod clusterMethod) { 
 		TreeNode[] result = null;
 		// For debugging purposes, output the distance matrix
 		// for (int row = 1; row < matrix.nRows(); row++) {
@@ -217,19 +313,19 @@ public class EisenCluster extends AbstractAttributeClusterAlgorithm {
 			case SINGLE_LINKAGE:
 				if (debug) 
 					logger.debug("Calculating single linkage hierarchical cluster");
-				result = pslCluster(matrix, distanceMatrix, metric);
+				result = pslCluster(matrix, distanceMatrix, null, metric);
 				break;
 
 			case MAXIMUM_LINKAGE:
 				if (debug) 
 					logger.debug("Calculating maximum linkage hierarchical cluster");
-				result = pmlcluster(matrix.nRows(), distanceMatrix);
+				result = PairwiseLinkage.pmlcluster(matrix.nRows(), distanceMatrix);
 				break;
 
 			case AVERAGE_LINKAGE:
 				if (debug) 
 					logger.debug("Calculating average linkage hierarchical cluster");
-				result = palcluster(matrix.nRows(), distanceMatrix);
+				result = PairwiseLinkage.palcluster(matrix.nRows(), distanceMatrix);
 				break;
 
 			case CENTROID_LINKAGE:
@@ -241,6 +337,188 @@ public class EisenCluster extends AbstractAttributeClusterAlgorithm {
 		return result;
 	}
 
+	/**
+ 	 * We only keep distance matrices for node attributes, and only when asked to
+ 	 */
+	private boolean useDistanceService(boolean transpose) {
+		return reuseDistances && !transpose && weightAttributes.length > 0 &&
+		       weightAttributes[0].startsWith("node.");
+	}
+
+	private String[] getNodeAttributes() {
+		String[] attributes = new String[weightAttributes.length];
+		for (int i = 0; i < weightAttributes.length; i++)
+			attributes[i] = weightAttributes[i].substring(5);
+		return attributes;
+	}
+
+	/**
+ 	 * Build an approximate tree for large data sets.  The rows are first
+ 	 * summarized in a CF-tree (see CFTree), which groups rows that are within
+ 	 * cfThreshold of each other into subclusters.  We cluster the rows within
+ 	 * each subcluster, then cluster the subcluster centroids, and hook the
+ 	 * subcluster trees in where the centroids were.  The result refers to the
+ 	 * rows of matrix, just like the tree from treeCluster.
+ 	 */
+	private TreeNode[] cfCluster(Matrix matrix, DistanceMetric metric, ClusterMethod clusterMethod) {
+		int nRows = matrix.nRows();
+		int nColumns = matrix.nColumns();
+
+		if (monitor != null) 
+			monitor.setStatus("Building CF-tree");
+
+		// Rows without any values can't be placed in the tree, so they get
+		// a subcluster of their own
+		CFTree cfTree = new CFTree(nColumns, cfThreshold, MAX_SUBCLUSTERS);
+		List<Integer> emptyRows = new ArrayList<Integer>();
+		double[] values = new double[nColumns];
+		for (int row = 0; row < nRows; row++) {
+			boolean empty = true;
+			for (int column = 0; column < nColumns; column++) {
+				if (matrix.hasValue(row, column)) {
+					values[column] = matrix.doubleValue(row, column);
+					empty = false;
+				} else {
+					values[column] = Double.NaN;
+				}
+			}
+			if (empty)
+				emptyRows.add(row);
+			else
+				cfTree.insert(row, values);
+		}
+
+		List<int[]> memberList = new ArrayList<int[]>();
+		List<double[]> centroidList = new ArrayList<double[]>();
+		for (CFTree.Feature leaf: cfTree.getLeaves()) {
+			memberList.add(leaf.getMembers());
+			centroidList.add(leaf.getCentroid());
+		}
+		if (emptyRows.size() > 0) {
+			int[] members = new int[emptyRows.size()];
+			for (int i = 0; i < members.length; i++)
+				members[i] = emptyRows.get(i);
+			memberList.add(members);
+			double[] centroid = new double[nColumns];
+			Arrays.fill(centroid, Double.NaN);
+			centroidList.add(centroid);
+		}
+
+		if (debug)
+			logger.debug("CF-tree has "+memberList.size()+" subclusters with threshold "+cfTree.getThreshold());
+		if (cfTree.getThreshold() > cfThreshold)
+			logger.info("Raised the CF-tree threshold to "+cfTree.getThreshold()+
+			            " to keep the number of subclusters under "+MAX_SUBCLUSTERS);
+
+		// Cluster the rows within each subcluster.  We remember the index
+		// of the root of each subcluster's tree, in the form TreeNode uses
+		// (row number for single rows, -(node+1) for tree nodes).
+		if (monitor != null) 
+			monitor.setStatus("Clustering within "+memberList.size()+" subclusters");
+		List<TreeNode> nodes = new ArrayList<TreeNode>(nRows);
+		int[] roots = new int[memberList.size()];
+		for (int leaf = 0; leaf < roots.length; leaf++)
+			roots[leaf] = clusterMembers(matrix, memberList.get(leaf), nodes);
+
+		if (roots.length == 1)
+			return nodes.toArray(new TreeNode[nodes.size()]);
+
+		// Cluster the centroids
+		if (monitor != null) 
+			monitor.setStatus("Clustering subcluster centroids");
+		Matrix centroids = new Matrix(roots.length, nColumns);
+		for (int leaf = 0; leaf < roots.length; leaf++) {
+			double[] centroid = centroidList.get(leaf);
+			centroids.setRowLabel(leaf, "CF"+leaf);
+			for (int column = 0; column < nColumns; column++) {
+				if (!Double.isNaN(centroid[column]))
+					centroids.setValue(leaf, column, centroid[column]);
+			}
+		}
+		centroids.setUniformWeights();
+		addTree(treeCluster(centroids, metric, clusterMethod), roots, nodes);
+
+		return nodes.toArray(new TreeNode[nodes.size()]);
+	}
+
+	/*
+	 * Build the tree for the rows in one subcluster, adding its nodes to
+	 * the list, and return the index of its root
+	 */
+	private int clusterMembers(Matrix matrix, int[] members, List<TreeNode> nodes) {
+		if (members.length == 1)
+			return members[0];
+
+		// Large subclusters are done in pieces, which are then chained together
+		int root = 0;
+		for (int start = 0; start < members.length; start += MAX_EXACT) {
+			int[] piece = Arrays.copyOfRange(members, start, Math.min(start+MAX_EXACT, members.length));
+			int pieceRoot = piece[0];
+			if (piece.length > 1) {
+				Matrix subMatrix = new Matrix(piece.length, matrix.nColumns());
+				for (int row = 0; row < piece.length; row++) {
+					subMatrix.setRowLabel(row, matrix.getRowLabel(piece[row]));
+					for (int column = 0; column < matrix.nColumns(); column++) {
+						if (matrix.hasValue(piece[row], column))
+							subMatrix.setValue(row, column, matrix.getValue(piece[row], column));
+					}
+				}
+				subMatrix.setUniformWeights();
+				pieceRoot = addTree(treeCluster(subMatrix, metric, clusterMethod), piece, nodes);
+			}
+
+			if (start == 0) {
+				root = pieceRoot;
+			} else {
+				// The join loop in cluster() raises this to the larger of the
+				// two children's distances
+				nodes.add(new TreeNode(root, pieceRoot, 0.0));
+				root = -nodes.size();
+			}
+		}
+		return root;
+	}
+
+	/*
+	 * Add a tree built over some set of items to the list of nodes, mapping
+	 * its leaves to the given indices.  Returns the index of the root.
+	 */
+	private int addTree(TreeNode[] tree, int[] leaves, List<TreeNode> nodes) {
+		int offset = nodes.size();
+		for (TreeNode node: tree) {
+			int left = node.getLeft();
+			int right = node.getRight();
+			node.setLeft(left >= 0 ? leaves[left] : left - offset);
+			node.setRight(right >= 0 ? leaves[right] : right - offset);
+			nodes.add(node);
+		}
+		return -nodes.size();
+	}
+
+	private TreeNode[] treeCluster(Matrix matrix, float[][] distanceMatrix, ClusterMethod clusterMethod) { 
+		TreeNode[] result = null;
+		switch (clusterMethod) {
+			case SINGLE_LINKAGE:
+				if (debug) 
+					logger.debug("Calculating single precision single linkage hierarchical cluster");
+				result = pslCluster(matrix, null, distanceMatrix, metric);
+				break;
+
+			case MAXIMUM_LINKAGE:
+				if (debug) 
+					logger.debug("Calculating single precision maximum linkage hierarchical cluster");
+				result = PairwiseLinkage.pmlcluster(matrix.nRows(), distanceMatrix);
+				break;
+
+			case AVERAGE_LINKAGE:
+				if (debug) 
+					logger.debug("Calculating single precision average linkage hierarchical cluster");
+				result = PairwiseLinkage.palcluster(matrix.nRows(), distanceMatrix);
+				break;
+		}
+		return result;
+	}
+
 	/**
  	 * The pslcluster routine performs single-linkage hierarchical clustering, using
  	 * either the distance matrix directly, if available, or by calculating the
@@ -255,12 +533,14 @@ public class EisenCluster extends AbstractAttributeClusterAlgorithm {
  	 *
  	 * @param matrix the data matrix containing the data and labels
  	 * @param distanceMatrix the distances that will be used to actually do the clustering.
+ 	 * @param floatMatrix single precision distances, used if distanceMatrix is null.
  	 * @param metric the distance metric to be used.
  	 * @return the array of TreeNode's that describe the hierarchical clustering solution, or null if
  	 * it it files for some reason.
  	 **/
 
-	private TreeNode[] pslCluster(Matrix matrix, double[][] distanceMatrix, DistanceMetric metric) {
+	private TreeNode[] pslCluster(Matrix matrix, double[][] distanceMatrix, float[][] floatMatrix, 
+	                              DistanceMetric metric) {
 		int nRows = matrix.nRows();
 		int nNodes = nRows-1;
 
@@ -278,6 +558,8 @@ public class EisenCluster extends AbstractAttributeClusterAlgorithm {
 		for (int row = 0; row < nRows; row++) {
 			if (distanceMatrix != null) {
 				for (int j = 0; j < row; j++) temp[j] = distanceMatrix[row][j];
+			} else if (floatMatrix != null) {
+				for (int j = 0; j < row; j++) temp[j] = floatMatrix[row][j];
 			} else {
 				for (int j = 0; j < row; j++)
 					temp[j] = metric.getMetric(matrix, matrix, matrix.getWeights(), row, j);
@@ -355,7 +637,7 @@ public class EisenCluster extends AbstractAttributeClusterAlgorithm {
 		for (int inode = 0; inode < nNodes; inode++) {
 			// find the pair with the shortest distance
 			pair[IS] = 1; pair[JS] = 0;
-			double distance = findClosestPair(nRows-inode, distanceMatrix, pair);
+			double distance = PairwiseLinkage.findClosestPair(nRows-inode, distanceMatrix, pair);
 			nodeList[inode].setDistance(distance);
 
 			int is = pair[IS];
@@ -407,162 +689,6 @@ public class EisenCluster extends AbstractAttributeClusterAlgorithm {
 		return nodeList;
 	}
 
-	/**
-	 * The pmlcluster routine performs clustering using pairwise maximum- (complete-)
-	 * linking on the given distance matrix.
-	 * 
-	 * @param nRows The number of rows to be clustered
-	 * @param distanceMatrix The distance matrix, with rows rows, each row being filled up to the
-	 * diagonal. The elements on the diagonal are not used, as they are assumed to be
-	 * zero. The distance matrix will be modified by this routine.
-	 * @return the array of TreeNode's that describe the hierarchical clustering solution, or null if
-	 * it fails for some reason.
-	 */
-	private TreeNode[] pmlcluster(int nRows, double[][] distanceMatrix) {
-		int[] clusterID = new int[nRows];
-		TreeNode[] nodeList = new TreeNode[nRows-1]; 
-
-		for (int j = 0; j < nRows; j++) {
-			clusterID[j] = j;
-		}
-
-		int pair[] = new int[2];
-		for (int n = nRows; n > 1; n--) {
-			pair[0] = 1; pair[1] = 2;
-			if (nodeList[nRows-n] == null)
-				nodeList[nRows-n] = new TreeNode(Double.MAX_VALUE);
-			nodeList[nRows-n].setDistance(findClosestPair(n, distanceMatrix, pair));
-			int is = pair[0];
-			int js = pair[1];
-
-			// Fix the distances
-			for (int j = 0; j < js; j++)
-				distanceMatrix[js][j] = Math.max(distanceMatrix[is][j],distanceMatrix[js][j]);
-			for (int j = js+1; j < is; j++)
-				distanceMatrix[j][js] = Math.max(distanceMatrix[is][j],distanceMatrix[j][js]);
-			for (int j = is+1; j < n; j++)
-				distanceMatrix[j][js] = Math.max(distanceMatrix[j][is],distanceMatrix[j][js]);
-			for (int j = 0; j < is; j++)
-				distanceMatrix[is][j] = distanceMatrix[n-1][j];
-			for (int j = is+1; j < n-1; j++)
-				distanceMatrix[j][is] = distanceMatrix[n-1][j];
-
-			// Update cluster IDs
-			nodeList[nRows-n].setLeft(clusterID[is]);
-			nodeList[nRows-n].setRight(clusterID[js]);
-			clusterID[js] = n-nRows-1;
-			clusterID[is] = clusterID[n-1];
-		}
-		return nodeList;
-	}
-
-	/**
-	 * The pmlcluster routine performs clustering using pairwise average
-	 * linking on the given distance matrix.
-	 * 
-	 * @param nRows The number of rows to be clustered
-	 * @param distanceMatrix The distance matrix, with rows rows, each row being filled up to the
-	 * diagonal. The elements on the diagonal are not used, as they are assumed to be
-	 * zero. The distance matrix will be modified by this routine.
-	 * @return the array of TreeNode's that describe the hierarchical clustering solution, or null if
-	 * it fails for some reason.
-	 */
-	private TreeNode[] palcluster(int nRows, double[][] distanceMatrix) {
-		int[] clusterID = new int[nRows];
-		int[] number = new int[nRows];
-		TreeNode[] nodeList = new TreeNode[nRows-1]; 
-
-		// Setup a list specifying to which cluster a gene belongs, and keep track
-		// of the number of elements in each cluster (needed to calculate the
-		// average).
-		for (int j = 0; j < nRows; j++) {
-			number[j] = 1;
-			clusterID[j] = j;
-		}
-
-		int pair[] = new int[2];
-		for (int n = nRows; n > 1; n--) {
-			int sum = 0;
-			pair[IS] = 1; pair[JS] = 0;
-			if (nodeList[nRows-n] == null)
-				nodeList[nRows-n] = new TreeNode(Double.MAX_VALUE);
-			double distance = findClosestPair(n, distanceMatrix, pair);
-			nodeList[nRows-n].setDistance(distance);
-
-			// Save result
-			int is = pair[IS];
-			int js = pair[JS];
-			nodeList[nRows-n].setLeft(clusterID[is]);
-			nodeList[nRows-n].setRight(clusterID[js]);
-
-			// Fix the distances
-			sum = number[is] + number[js];
-			for (int j = 0; j < js; j++) {
-				distanceMatrix[js][j] = (distanceMatrix[is][j]*(double)number[is] + distanceMatrix[js][j]*(double)number[js])/(double)sum;
-			}
-
-			for (int j = js+1; j < is; j++) {
-				distanceMatrix[j][js] = (distanceMatrix[is][j]*(double)number[is] + distanceMatrix[j][js]*(double)number[js])/(double)sum;
-			}
-
-			for (int j = is+1; j < n; j++) {
-				distanceMatrix[j][js] = (distanceMatrix[j][is]*(double)number[is] + distanceMatrix[j][js]*(double)number[js])/(double)sum;
-			}
-
-			for (int j = 0; j < is; j++) {
-				distanceMatrix[is][j] = distanceMatrix[n-1][j];
-			}
-			for (int j = is+1; j < n-1; j++) {
-				distanceMatrix[j][is] = distanceMatrix[n-1][j];
-			}
-
-			// Update number of elements in the clusters
-			number[js] = sum;
-			number[is] = number[n-1];
-
-			// Update cluster IDs
-			clusterID[js] = n-nRows-1;
-			clusterID[is] = clusterID[n-1];
-		}
-		return nodeList;
-	}
-
-	/**
- 	 * This function searches the distance matrix to find the pair with the shortest
- 	 * distance between them. The indices of the pair are returned in ip and jp; the
- 	 * distance itself is returned by the function.
- 	 *
- 	 * n          (input) int
- 	 * The number of elements in the distance matrix.
- 	 *
- 	 * distanceMatrix (input) double[][]
- 	 * A ragged array containing the distance matrix. The number of columns in each
- 	 * row is one less than the row index.
- 	 *
- 	 * pair         (output) int[2]
- 	 * An array with two values representing the first and second indices of the pair
- 	 * with the shortest distance.
- 	 */
-	private double findClosestPair(int n, double[][] distanceMatrix, int[] pair) {
-		int ip = 1;
-		int jp = 0;
-		double temp;
-		double distance = distanceMatrix[1][0];
-		for (int i = 1; i < n; i++) {
-			for (int j = 0; j < i; j++) {
-				temp = distanceMatrix[i][j];
-				if (temp < distance) {
-					distance = temp;
-					ip = i;
-					jp = j;
-				}
-			}
-		}
-		pair[IS] = ip;
-		pair[JS] = jp;
-		return distance;
-	}
-
 	private Integer[] TreeSort(Matrix matrix, int nNodes, double nodeOrder[], int nodeCounts[], TreeNode nodeList[]) {
 		int nElements = nNodes+1;
 		double newOrder[] = new double[nElements];
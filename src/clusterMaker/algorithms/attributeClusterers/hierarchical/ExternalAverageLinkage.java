@@ -0,0 +1,565 @@
+/* vim: set ts=2: */
+/**
+ * Copyright (c) 2008 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions, and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions, and the following
+ *      disclaimer in the documentation and/or other materials provided
+ *      with the distribution.
+ *   3. Redistributions must acknowledge that this software was
+ *      originally developed by the UCSF Computer Graphics Laboratory
+ *      under support by the NIH National Center for Research Resources,
+ *      grant P41-RR01081.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE REGENTS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package clusterMaker.algorithms.attributeClusterers.hierarchical;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import clusterMaker.algorithms.attributeClusterers.BaseMatrix;
+import clusterMaker.algorithms.attributeClusterers.DistanceMetric;
+
+/**
+ * ExternalAverageLinkage does average linkage (UPGMA) clustering without
+ * holding the distance matrix in memory.  The distances are written to
+ * temporary files as sorted blocks of (distance, i, j) records, and then
+ * read back in increasing order by merging the blocks through a priority
+ * queue.  As each distance is read, it's added to the running sum for the
+ * pair of clusters its rows belong to, which is all the Lance-Williams
+ * update for average linkage needs.  A pair of clusters can be merged once
+ * all of the distances between them have been read, and its average is no
+ * larger than the lower bound on any other pair (every distance we haven't
+ * read yet is at least as large as the next one in the stream).
+ *
+ * The result has the same form as palcluster.  Ties may be broken
+ * differently.  Memory use depends on the number of pairs of clusters that
+ * have some, but not all, of their distances read, which is usually much
+ * smaller than the full matrix, but isn't bounded.
+ *
+ * See Loewenstein, Y., Portugaly, E., Fromer, M., and Linial, M. (2008).
+ * Efficient algorithms for accurate hierarchical clustering of huge datasets:
+ * tackling the entire protein space. Bioinformatics 24(13): i41-i49.
+ */
+class ExternalAverageLinkage {
+	// Number of records each thread sorts in memory (16 bytes each)
+	static final int BLOCK_SIZE = 1 << 21;
+	// Most files we'll read from at once
+	static final int MAX_OPEN = 128;
+	static final int RECORD_SIZE = 16;
+	static final int BUFFER_SIZE = 1 << 16;
+
+	private final BaseMatrix matrix;
+	private final DistanceMetric metric;
+	private final List<File> blocks = new ArrayList<File>();
+
+	// Union-find over the rows.  For roots, the size of the cluster, the
+	// index TreeNode uses for it, and the clusters we've read distances to.
+	private int[] parent;
+	private int[] size;
+	private int[] treeIndex;
+	private Map<Integer, Pair>[] neighbors;
+
+	private PriorityQueue<Pair> complete;
+	private PriorityQueue<Bound> incomplete;
+
+	public ExternalAverageLinkage(BaseMatrix matrix, DistanceMetric metric) {
+		this.matrix = matrix;
+		this.metric = metric;
+	}
+
+	/**
+ 	 * Cluster the rows of the matrix
+ 	 *
+ 	 * @return the tree, in the same form as palcluster
+ 	 */
+	public TreeNode[] cluster() throws IOException {
+		try {
+			writeBlocks();
+			while (blocks.size() > MAX_OPEN)
+				mergeBlocks();
+			return buildTree();
+		} finally {
+			for (File block: blocks)
+				block.delete();
+			blocks.clear();
+		}
+	}
+
+	/*
+	 * Compute the lower triangle of the distance matrix, writing it out as
+	 * sorted blocks.  Each thread works on its own rows and its own block.
+	 */
+	private void writeBlocks() throws IOException {
+		final int nRows = matrix.nRows();
+		final double[] weights = matrix.getWeights();
+		final AtomicInteger nextRow = new AtomicInteger(1);
+		int nThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), nRows/64));
+
+		ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for (int thread = 0; thread < nThreads; thread++) {
+			results.add(threadPool.submit(new Runnable() {
+				public void run() {
+					long[] keys = new long[BLOCK_SIZE];
+					long[] pairs = new long[BLOCK_SIZE];
+					int count = 0;
+					int row;
+					try {
+						while ((row = nextRow.getAndIncrement()) < nRows) {
+							for (int column = 0; column < row; column++) {
+								if (count == BLOCK_SIZE) {
+									writeBlock(keys, pairs, count);
+									count = 0;
+								}
+								double distance = metric.getMetric(matrix, matrix, weights, column, row);
+								keys[count] = sortKey(distance);
+								pairs[count++] = ((long)row << 32) | column;
+							}
+						}
+						if (count > 0)
+							writeBlock(keys, pairs, count);
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			}));
+		}
+		threadPool.shutdown();
+
+		try {
+			for (Future<?> result: results)
+				result.get();
+		} catch (Exception e) {
+			if (e.getCause() != null && e.getCause().getCause() instanceof IOException)
+				throw (IOException)e.getCause().getCause();
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void writeBlock(long[] keys, long[] pairs, int count) throws IOException {
+		sort(keys, pairs, 0, count-1);
+		BlockWriter writer = new BlockWriter(newBlock());
+		try {
+			for (int i = 0; i < count; i++)
+				writer.write(sortKey(keys[i]), (int)(pairs[i] >>> 32), (int)pairs[i]);
+		} finally {
+			writer.close();
+		}
+	}
+
+	private synchronized File newBlock() throws IOException {
+		File block = File.createTempFile("clusterMaker", ".dist");
+		block.deleteOnExit();
+		blocks.add(block);
+		return block;
+	}
+
+	/*
+	 * Merge the blocks in groups, so that we don't have too many files open
+	 */
+	private void mergeBlocks() throws IOException {
+		List<File> inputs = new ArrayList<File>(blocks);
+		blocks.clear();
+		for (int start = 0; start < inputs.size(); start += MAX_OPEN) {
+			List<File> group = inputs.subList(start, Math.min(start+MAX_OPEN, inputs.size()));
+			PriorityQueue<BlockReader> readers = openReaders(group);
+			BlockWriter writer = new BlockWriter(newBlock());
+			try {
+				while (!readers.isEmpty()) {
+					BlockReader reader = readers.poll();
+					writer.write(reader.distance, reader.i, reader.j);
+					advance(readers, reader);
+				}
+			} finally {
+				writer.close();
+				for (BlockReader reader: readers)
+					reader.close();
+			}
+			for (File block: group)
+				block.delete();
+		}
+	}
+
+	private PriorityQueue<BlockReader> openReaders(List<File> files) throws IOException {
+		PriorityQueue<BlockReader> readers = new PriorityQueue<BlockReader>(Math.max(1, files.size()));
+		for (File file: files)
+			advance(readers, new BlockReader(file));
+		return readers;
+	}
+
+	private void advance(PriorityQueue<BlockReader> readers, BlockReader reader) throws IOException {
+		if (reader.next())
+			readers.add(reader);
+		else
+			reader.close();
+	}
+
+	/*
+	 * Read the distances in order, merging clusters as soon as we can
+	 */
+	@SuppressWarnings("unchecked")
+	private TreeNode[] buildTree() throws IOException {
+		int nRows = matrix.nRows();
+		parent = new int[nRows];
+		size = new int[nRows];
+		treeIndex = new int[nRows];
+		neighbors = new Map[nRows];
+		for (int row = 0; row < nRows; row++) {
+			parent[row] = row;
+			size[row] = 1;
+			treeIndex[row] = row;
+			neighbors[row] = new HashMap<Integer, Pair>();
+		}
+		complete = new PriorityQueue<Pair>();
+		incomplete = new PriorityQueue<Bound>();
+
+		TreeNode[] nodeList = new TreeNode[Math.max(nRows-1, 0)];
+		int nNodes = 0;
+		PriorityQueue<BlockReader> readers = openReaders(blocks);
+		try {
+			while (nNodes < nodeList.length) {
+				double next = readers.isEmpty() ? Double.POSITIVE_INFINITY : readers.peek().distance;
+				Pair best = complete.peek();
+				while (best != null && best.dead) {
+					complete.poll();
+					best = complete.peek();
+				}
+
+				if (best != null && (readers.isEmpty() || 
+				    (best.average() <= next && best.average() <= lowerBound(next)))) {
+					complete.poll();
+					nodeList[nNodes] = new TreeNode(treeIndex[best.a], treeIndex[best.b], best.average());
+					merge(best, -(nNodes+1), next);
+					nNodes++;
+					continue;
+				}
+
+				if (readers.isEmpty())
+					throw new IllegalStateException("Ran out of distances with "+(nRows-nNodes)+" clusters left");
+
+				BlockReader reader = readers.poll();
+				addDistance(reader.distance, reader.i, reader.j);
+				advance(readers, reader);
+			}
+		} finally {
+			for (BlockReader reader: readers)
+				reader.close();
+		}
+		return nodeList;
+	}
+
+	/*
+	 * The smallest average any incomplete pair could have
+	 */
+	private double lowerBound(double next) {
+		while (!incomplete.isEmpty()) {
+			Bound bound = incomplete.peek();
+			Pair pair = bound.pair;
+			if (pair.dead || pair.isComplete()) {
+				incomplete.poll();
+				continue;
+			}
+			// Bounds only go up as we read further, so we can update them lazily
+			double value = pair.lowerBound(next);
+			if (value > bound.value) {
+				incomplete.poll();
+				bound.value = value;
+				incomplete.add(bound);
+				continue;
+			}
+			return bound.value;
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	private void addDistance(double distance, int i, int j) {
+		int a = find(i);
+		int b = find(j);
+		if (a == b)
+			return;
+
+		Pair pair = neighbors[a].get(b);
+		if (pair == null) {
+			pair = new Pair(a, b);
+			neighbors[a].put(b, pair);
+			neighbors[b].put(a, pair);
+			incomplete.add(new Bound(distance, pair));
+		}
+		pair.sum += distance;
+		pair.count++;
+		if (pair.isComplete())
+			complete.add(pair);
+	}
+
+	/*
+	 * Merge the two clusters of a pair, combining their sums with every
+	 * other cluster
+	 */
+	private void merge(Pair merged, int index, double next) {
+		int a = merged.a;
+		int b = merged.b;
+		merged.dead = true;
+		int root = size[a] >= size[b] ? a : b;
+		int other = (root == a) ? b : a;
+		parent[other] = root;
+		size[root] = size[a] + size[b];
+		treeIndex[root] = index;
+
+		Map<Integer, Pair> combined = new HashMap<Integer, Pair>();
+		for (int cluster: new int[] {a, b}) {
+			for (Map.Entry<Integer, Pair> entry: neighbors[cluster].entrySet()) {
+				int neighbor = entry.getKey();
+				if (neighbor == a || neighbor == b)
+					continue;
+				Pair pair = entry.getValue();
+				pair.dead = true;
+				neighbors[neighbor].remove(cluster);
+				Pair newPair = combined.get(neighbor);
+				if (newPair == null) {
+					newPair = new Pair(root, neighbor);
+					combined.put(neighbor, newPair);
+				}
+				newPair.sum += pair.sum;
+				newPair.count += pair.count;
+			}
+		}
+		neighbors[other] = null;
+		neighbors[root] = combined;
+
+		for (Pair pair: combined.values()) {
+			neighbors[pair.b].put(root, pair);
+			if (pair.isComplete())
+				complete.add(pair);
+			else
+				incomplete.add(new Bound(pair.lowerBound(next), pair));
+		}
+	}
+
+	private int find(int row) {
+		int root = row;
+		while (parent[root] != root)
+			root = parent[root];
+		while (parent[row] != root) {
+			int up = parent[row];
+			parent[row] = root;
+			row = up;
+		}
+		return root;
+	}
+
+	/*
+	 * The distances we've read between two clusters
+	 */
+	class Pair implements Comparable<Pair> {
+		final int a;
+		final int b;
+		double sum = 0.0;
+		long count = 0;
+		boolean dead = false;
+
+		Pair(int a, int b) {
+			this.a = a;
+			this.b = b;
+		}
+
+		long total() { return (long)size[a]*(long)size[b]; }
+
+		boolean isComplete() { return count == total(); }
+
+		double average() { return sum/count; }
+
+		// Every distance we haven't read is at least next
+		double lowerBound(double next) {
+			long total = total();
+			if (count == total)
+				return average();
+			return (sum + (total-count)*next)/total;
+		}
+
+		public int compareTo(Pair pair) {
+			return Double.compare(average(), pair.average());
+		}
+	}
+
+	static class Bound implements Comparable<Bound> {
+		double value;
+		final Pair pair;
+
+		Bound(double value, Pair pair) {
+			this.value = value;
+			this.pair = pair;
+		}
+
+		public int compareTo(Bound bound) {
+			return Double.compare(value, bound.value);
+		}
+	}
+
+	/*
+	 * Map a distance to a long with the same order, and back again
+	 */
+	static long sortKey(double distance) {
+		long bits = Double.doubleToLongBits(distance);
+		return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+	}
+
+	static double sortKey(long key) {
+		return Double.longBitsToDouble(key ^ ((key >> 63) & Long.MAX_VALUE));
+	}
+
+	/*
+	 * Quicksort the keys, carrying the pairs along
+	 */
+	static void sort(long[] keys, long[] pairs, int low, int high) {
+		while (high - low > 16) {
+			int middle = (low + high) >>> 1;
+			long pivot = keys[middle];
+			long pivotPair = pairs[middle];
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (compare(keys[i], pairs[i], pivot, pivotPair) < 0) i++;
+				while (compare(keys[j], pairs[j], pivot, pivotPair) > 0) j--;
+				if (i <= j) {
+					swap(keys, pairs, i, j);
+					i++;
+					j--;
+				}
+			}
+			// Recurse on the smaller side to bound the stack
+			if (j - low < high - i) {
+				sort(keys, pairs, low, j);
+				low = i;
+			} else {
+				sort(keys, pairs, i, high);
+				high = j;
+			}
+		}
+		for (int i = low+1; i <= high; i++) {
+			for (int j = i; j > low && compare(keys[j-1], pairs[j-1], keys[j], pairs[j]) > 0; j--)
+				swap(keys, pairs, j-1, j);
+		}
+	}
+
+	private static int compare(long key1, long pair1, long key2, long pair2) {
+		if (key1 != key2)
+			return key1 < key2 ? -1 : 1;
+		if (pair1 != pair2)
+			return pair1 < pair2 ? -1 : 1;
+		return 0;
+	}
+
+	private static void swap(long[] keys, long[] pairs, int i, int j) {
+		long key = keys[i]; keys[i] = keys[j]; keys[j] = key;
+		long pair = pairs[i]; pairs[i] = pairs[j]; pairs[j] = pair;
+	}
+
+	static class BlockWriter {
+		final FileChannel channel;
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		BlockWriter(File file) throws IOException {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, 
+			                           StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		}
+
+		void write(double distance, int i, int j) throws IOException {
+			if (buffer.remaining() < RECORD_SIZE)
+				flush();
+			buffer.putDouble(distance);
+			buffer.putInt(i);
+			buffer.putInt(j);
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+
+		void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+
+	static class BlockReader implements Comparable<BlockReader> {
+		final FileChannel channel;
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		double distance;
+		int i;
+		int j;
+
+		BlockReader(File file) throws IOException {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			buffer.limit(0);
+		}
+
+		boolean next() throws IOException {
+			if (buffer.remaining() < RECORD_SIZE) {
+				buffer.compact();
+				while (buffer.position() < RECORD_SIZE && channel.read(buffer) >= 0)
+					;
+				buffer.flip();
+				if (buffer.remaining() < RECORD_SIZE)
+					return false;
+			}
+			distance = buffer.getDouble();
+			i = buffer.getInt();
+			j = buffer.getInt();
+			return true;
+		}
+
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {}
+		}
+
+		public int compareTo(BlockReader reader) {
+			long key1 = sortKey(distance);
+			long key2 = sortKey(reader.distance);
+			if (key1 != key2)
+				return key1 < key2 ? -1 : 1;
+			if (i != reader.i)
+				return i < reader.i ? -1 : 1;
+			return j < reader.j ? -1 : (j == reader.j ? 0 : 1);
+		}
+	}
+}
@@ -48,6 +48,7 @@ import cytoscape.task.TaskMonitor;
 
 import clusterMaker.algorithms.ClusterAlgorithm;
 import clusterMaker.algorithms.attributeClusterers.AbstractAttributeClusterer;
+import clusterMaker.algorithms.attributeClusterers.DistanceMatrixService;
 import clusterMaker.algorithms.attributeClusterers.DistanceMetric;
 import clusterMaker.algorithms.attributeClusterers.Matrix;
 import clusterMaker.ui.ClusterViz;
@@ -66,6 +67,9 @@ public class HierarchicalCluster extends AbstractAttributeClusterer {
 
 
 	ClusterMethod clusterMethod =  ClusterMethod.AVERAGE_LINKAGE;
+	double cfThreshold = 0.0;
+	boolean outOfCore = false;
+	boolean reuseDistances = false;
 	TreeView treeView = null;
 
 	public HierarchicalCluster() {
@@ -144,7 +148,7 @@ public class HierarchicalCluster extends AbstractAttributeClusterer {
 
 		clusterProperties.add(new Tunable("advancedParametersGroup",
 		                                  "Advanced Parameters",
-		                                  Tunable.GROUP, new Integer(2), 
+		                                  Tunable.GROUP, new Integer(6), 
 		                                  new Boolean(true), null,
 		                                  Tunable.COLLAPSABLE));
 
@@ -158,6 +162,27 @@ public class HierarchicalCluster extends AbstractAttributeClusterer {
 		                                  "Adjust loops (not common)",
 		                                  Tunable.BOOLEAN, new Boolean(adjustDiagonals)));
 
+		// Keep the distance matrix in single precision for large data sets
+		clusterProperties.add(new Tunable("singlePrecision",
+		                                  "Store distances in single precision (saves memory)",
+		                                  Tunable.BOOLEAN, new Boolean(singlePrecision)));
+
+		// Pre-cluster rows into subclusters of this radius for very large data sets
+		clusterProperties.add(new Tunable("cfThreshold",
+		                                  "Pre-cluster rows within this radius (0 = off)",
+		                                  Tunable.DOUBLE, new Double(cfThreshold),
+		                                  new Double(0.0), null, 0));
+
+		// Average linkage on data sets whose distance matrix won't fit in memory
+		clusterProperties.add(new Tunable("outOfCore",
+		                                  "Keep distances on disk (average linkage only)",
+		                                  Tunable.BOOLEAN, new Boolean(outOfCore)));
+
+		// Keep the distance matrix so that reclustering after edits is quicker
+		clusterProperties.add(new Tunable("reuseDistances",
+		                                  "Keep distances between runs (uses more memory)",
+		                                  Tunable.BOOLEAN, new Boolean(reuseDistances)));
+
 		// Whether or not to create groups
 		clusterProperties.add(new Tunable("createGroups",
 		                                  "Create groups from clusters", 
@@ -211,6 +236,26 @@ public class HierarchicalCluster extends AbstractAttributeClusterer {
 		t = clusterProperties.get("adjustDiagonals");
 		if ((t != null) && (t.valueChanged() || force)) 
 			adjustDiagonals = ((Boolean) t.getValue()).booleanValue();
+
+		t = clusterProperties.get("singlePrecision");
+		if ((t != null) && (t.valueChanged() || force)) 
+			singlePrecision = ((Boolean) t.getValue()).booleanValue();
+
+		t = clusterProperties.get("cfThreshold");
+		if ((t != null) && (t.valueChanged() || force)) 
+			cfThreshold = ((Double) t.getValue()).doubleValue();
+
+		t = clusterProperties.get("outOfCore");
+		if ((t != null) && (t.valueChanged() || force)) 
+			outOfCore = ((Boolean) t.getValue()).booleanValue();
+
+		t = clusterProperties.get("reuseDistances");
+		if ((t != null) && (t.valueChanged() || force)) {
+			reuseDistances = ((Boolean) t.getValue()).booleanValue();
+			// Don't hold on to matrices nobody is going to use
+			if (!reuseDistances)
+				DistanceMatrixService.clearAll();
+		}
 	}
 
 	public void doCluster(TaskMonitor monitor) {
@@ -278,6 +323,10 @@ public class HierarchicalCluster extends AbstractAttributeClusterer {
 		algorithm.setSelectedOnly(selectedOnly);
 		algorithm.setAdjustDiagonals(adjustDiagonals);
 		algorithm.setZeroMissing(zeroMissing);
+		algorithm.setSinglePrecision(singlePrecision);
+		algorithm.setCFThreshold(cfThreshold);
+		algorithm.setOutOfCore(outOfCore);
+		algorithm.setReuseDistances(reuseDistances);
 	}
 
 }
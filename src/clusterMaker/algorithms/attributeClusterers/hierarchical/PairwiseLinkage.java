@@ -0,0 +1,328 @@
+/**
+ * Copyright (c) 2008 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions, and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions, and the following
+ *      disclaimer in the documentation and/or other materials provided
+ *      with the distribution.
+ *   3. Redistributions must acknowledge that this software was
+ *      originally developed by the UCSF Computer Graphics Laboratory
+ *      under support by the NIH National Center for Research Resources,
+ *      grant P41-RR01081.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE REGENTS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package clusterMaker.algorithms.attributeClusterers.hierarchical;
+
+/**
+ * The pairwise maximum and average linkage loops, in double and single
+ * precision.  They work on a lower-triangular distance matrix, which they
+ * overwrite as clusters merge, so they don't need the data itself.
+ * Independent of Cytoscape.
+ */
+class PairwiseLinkage {
+	final static int IS = 0;
+	final static int JS = 1;
+
+	private PairwiseLinkage() {
+	}
+
+	/**
+	 * The pmlcluster routine performs clustering using pairwise maximum- (complete-)
+	 * linking on the given distance matrix.
+	 * 
+	 * @param nRows The number of rows to be clustered
+	 * @param distanceMatrix The distance matrix, with rows rows, each row being filled up to the
+	 * diagonal. The elements on the diagonal are not used, as they are assumed to be
+	 * zero. The distance matrix will be modified by this routine.
+	 * @return the array of TreeNode's that describe the hierarchical clustering solution, or null if
+	 * it fails for some reason.
+	 */
+	static TreeNode[] pmlcluster(int nRows, double[][] distanceMatrix) {
+		int[] clusterID = new int[nRows];
+		TreeNode[] nodeList = new TreeNode[nRows-1]; 
+
+		for (int j = 0; j < nRows; j++) {
+			clusterID[j] = j;
+		}
+
+		int pair[] = new int[2];
+		for (int n = nRows; n > 1; n--) {
+			pair[0] = 1; pair[1] = 2;
+			if (nodeList[nRows-n] == null)
+				nodeList[nRows-n] = new TreeNode(Double.MAX_VALUE);
+			nodeList[nRows-n].setDistance(findClosestPair(n, distanceMatrix, pair));
+			int is = pair[0];
+			int js = pair[1];
+
+			// Fix the distances
+			for (int j = 0; j < js; j++)
+				distanceMatrix[js][j] = Math.max(distanceMatrix[is][j],distanceMatrix[js][j]);
+			for (int j = js+1; j < is; j++)
+				distanceMatrix[j][js] = Math.max(distanceMatrix[is][j],distanceMatrix[j][js]);
+			for (int j = is+1; j < n; j++)
+				distanceMatrix[j][js] = Math.max(distanceMatrix[j][is],distanceMatrix[j][js]);
+			for (int j = 0; j < is; j++)
+				distanceMatrix[is][j] = distanceMatrix[n-1][j];
+			for (int j = is+1; j < n-1; j++)
+				distanceMatrix[j][is] = distanceMatrix[n-1][j];
+
+			// Update cluster IDs
+			nodeList[nRows-n].setLeft(clusterID[is]);
+			nodeList[nRows-n].setRight(clusterID[js]);
+			clusterID[js] = n-nRows-1;
+			clusterID[is] = clusterID[n-1];
+		}
+		return nodeList;
+	}
+
+	/**
+	 * The pmlcluster routine performs clustering using pairwise average
+	 * linking on the given distance matrix.
+	 * 
+	 * @param nRows The number of rows to be clustered
+	 * @param distanceMatrix The distance matrix, with rows rows, each row being filled up to the
+	 * diagonal. The elements on the diagonal are not used, as they are assumed to be
+	 * zero. The distance matrix will be modified by this routine.
+	 * @return the array of TreeNode's that describe the hierarchical clustering solution, or null if
+	 * it fails for some reason.
+	 */
+	static TreeNode[] palcluster(int nRows, double[][] distanceMatrix) {
+		int[] clusterID = new int[nRows];
+		int[] number = new int[nRows];
+		TreeNode[] nodeList = new TreeNode[nRows-1]; 
+
+		// Setup a list specifying to which cluster a gene belongs, and keep track
+		// of the number of elements in each cluster (needed to calculate the
+		// average).
+		for (int j = 0; j < nRows; j++) {
+			number[j] = 1;
+			clusterID[j] = j;
+		}
+
+		int pair[] = new int[2];
+		for (int n = nRows; n > 1; n--) {
+			int sum = 0;
+			pair[IS] = 1; pair[JS] = 0;
+			if (nodeList[nRows-n] == null)
+				nodeList[nRows-n] = new TreeNode(Double.MAX_VALUE);
+			double distance = findClosestPair(n, distanceMatrix, pair);
+			nodeList[nRows-n].setDistance(distance);
+
+			// Save result
+			int is = pair[IS];
+			int js = pair[JS];
+			nodeList[nRows-n].setLeft(clusterID[is]);
+			nodeList[nRows-n].setRight(clusterID[js]);
+
+			// Fix the distances
+			sum = number[is] + number[js];
+			for (int j = 0; j < js; j++) {
+				distanceMatrix[js][j] = (distanceMatrix[is][j]*(double)number[is] + distanceMatrix[js][j]*(double)number[js])/(double)sum;
+			}
+
+			for (int j = js+1; j < is; j++) {
+				distanceMatrix[j][js] = (distanceMatrix[is][j]*(double)number[is] + distanceMatrix[j][js]*(double)number[js])/(double)sum;
+			}
+
+			for (int j = is+1; j < n; j++) {
+				distanceMatrix[j][js] = (distanceMatrix[j][is]*(double)number[is] + distanceMatrix[j][js]*(double)number[js])/(double)sum;
+			}
+
+			for (int j = 0; j < is; j++) {
+				distanceMatrix[is][j] = distanceMatrix[n-1][j];
+			}
+			for (int j = is+1; j < n-1; j++) {
+				distanceMatrix[j][is] = distanceMatrix[n-1][j];
+			}
+
+			// Update number of elements in the clusters
+			number[js] = sum;
+			number[is] = number[n-1];
+
+			// Update cluster IDs
+			clusterID[js] = n-nRows-1;
+			clusterID[is] = clusterID[n-1];
+		}
+		return nodeList;
+	}
+
+	/**
+ 	 * This function searches the distance matrix to find the pair with the shortest
+ 	 * distance between them. The indices of the pair are returned in ip and jp; the
+ 	 * distance itself is returned by the function.
+ 	 *
+ 	 * n          (input) int
+ 	 * The number of elements in the distance matrix.
+ 	 *
+ 	 * distanceMatrix (input) double[][]
+ 	 * A ragged array containing the distance matrix. The number of columns in each
+ 	 * row is one less than the row index.
+ 	 *
+ 	 * pair         (output) int[2]
+ 	 * An array with two values representing the first and second indices of the pair
+ 	 * with the shortest distance.
+ 	 */
+	static double findClosestPair(int n, double[][] distanceMatrix, int[] pair) {
+		int ip = 1;
+		int jp = 0;
+		double temp;
+		double distance = distanceMatrix[1][0];
+		for (int i = 1; i < n; i++) {
+			for (int j = 0; j < i; j++) {
+				temp = distanceMatrix[i][j];
+				if (temp < distance) {
+					distance = temp;
+					ip = i;
+					jp = j;
+				}
+			}
+		}
+		pair[IS] = ip;
+		pair[JS] = jp;
+		return distance;
+	}
+
+	/**
+	 * Single precision version of pmlcluster.  The merged distances are the
+	 * same floats the double precision version would round to.
+	 */
+	static TreeNode[] pmlcluster(int nRows, float[][] distanceMatrix) {
+		int[] clusterID = new int[nRows];
+		TreeNode[] nodeList = new TreeNode[nRows-1]; 
+
+		for (int j = 0; j < nRows; j++) {
+			clusterID[j] = j;
+		}
+
+		int pair[] = new int[2];
+		for (int n = nRows; n > 1; n--) {
+			pair[0] = 1; pair[1] = 2;
+			if (nodeList[nRows-n] == null)
+				nodeList[nRows-n] = new TreeNode(Double.MAX_VALUE);
+			nodeList[nRows-n].setDistance(findClosestPair(n, distanceMatrix, pair));
+			int is = pair[0];
+			int js = pair[1];
+
+			// Fix the distances
+			for (int j = 0; j < js; j++)
+				distanceMatrix[js][j] = Math.max(distanceMatrix[is][j],distanceMatrix[js][j]);
+			for (int j = js+1; j < is; j++)
+				distanceMatrix[j][js] = Math.max(distanceMatrix[is][j],distanceMatrix[j][js]);
+			for (int j = is+1; j < n; j++)
+				distanceMatrix[j][js] = Math.max(distanceMatrix[j][is],distanceMatrix[j][js]);
+			for (int j = 0; j < is; j++)
+				distanceMatrix[is][j] = distanceMatrix[n-1][j];
+			for (int j = is+1; j < n-1; j++)
+				distanceMatrix[j][is] = distanceMatrix[n-1][j];
+
+			// Update cluster IDs
+			nodeList[nRows-n].setLeft(clusterID[is]);
+			nodeList[nRows-n].setRight(clusterID[js]);
+			clusterID[js] = n-nRows-1;
+			clusterID[is] = clusterID[n-1];
+		}
+		return nodeList;
+	}
+
+	/**
+	 * Single precision version of palcluster.  The averages are computed in
+	 * double precision and rounded as they're stored.
+	 */
+	static TreeNode[] palcluster(int nRows, float[][] distanceMatrix) {
+		int[] clusterID = new int[nRows];
+		int[] number = new int[nRows];
+		TreeNode[] nodeList = new TreeNode[nRows-1]; 
+
+		for (int j = 0; j < nRows; j++) {
+			number[j] = 1;
+			clusterID[j] = j;
+		}
+
+		int pair[] = new int[2];
+		for (int n = nRows; n > 1; n--) {
+			int sum = 0;
+			pair[IS] = 1; pair[JS] = 0;
+			if (nodeList[nRows-n] == null)
+				nodeList[nRows-n] = new TreeNode(Double.MAX_VALUE);
+			double distance = findClosestPair(n, distanceMatrix, pair);
+			nodeList[nRows-n].setDistance(distance);
+
+			// Save result
+			int is = pair[IS];
+			int js = pair[JS];
+			nodeList[nRows-n].setLeft(clusterID[is]);
+			nodeList[nRows-n].setRight(clusterID[js]);
+
+			// Fix the distances
+			sum = number[is] + number[js];
+			for (int j = 0; j < js; j++) {
+				distanceMatrix[js][j] = (float)((distanceMatrix[is][j]*(double)number[is] + distanceMatrix[js][j]*(double)number[js])/(double)sum);
+			}
+
+			for (int j = js+1; j < is; j++) {
+				distanceMatrix[j][js] = (float)((distanceMatrix[is][j]*(double)number[is] + distanceMatrix[j][js]*(double)number[js])/(double)sum);
+			}
+
+			for (int j = is+1; j < n; j++) {
+				distanceMatrix[j][js] = (float)((distanceMatrix[j][is]*(double)number[is] + distanceMatrix[j][js]*(double)number[js])/(double)sum);
+			}
+
+			for (int j = 0; j < is; j++) {
+				distanceMatrix[is][j] = distanceMatrix[n-1][j];
+			}
+			for (int j = is+1; j < n-1; j++) {
+				distanceMatrix[j][is] = distanceMatrix[n-1][j];
+			}
+
+			// Update number of elements in the clusters
+			number[js] = sum;
+			number[is] = number[n-1];
+
+			// Update cluster IDs
+			clusterID[js] = n-nRows-1;
+			clusterID[is] = clusterID[n-1];
+		}
+		return nodeList;
+	}
+
+	/**
+	 * Single precision version of findClosestPair
+	 */
+	static double findClosestPair(int n, float[][] distanceMatrix, int[] pair) {
+		int ip = 1;
+		int jp = 0;
+		float temp;
+		float distance = distanceMatrix[1][0];
+		for (int i = 1; i < n; i++) {
+			for (int j = 0; j < i; j++) {
+				temp = distanceMatrix[i][j];
+				if (temp < distance) {
+					distance = temp;
+					ip = i;
+					jp = j;
+				}
+			}
+		}
+		pair[IS] = ip;
+		pair[JS] = jp;
+		return distance;
+	}
+}
@@ -0,0 +1,140 @@
+package clusterMaker.algorithms.attributeClusterers.pam;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import clusterMaker.algorithms.attributeClusterers.BaseMatrix;
+import clusterMaker.algorithms.attributeClusterers.Clusters;
+import clusterMaker.algorithms.attributeClusterers.DistanceMatrix;
+import clusterMaker.algorithms.attributeClusterers.DistanceMetric;
+import clusterMaker.algorithms.attributeClusterers.KMedoidsSeeding;
+import clusterMaker.algorithms.attributeClusterers.hopach.types.KClusterable;
+
+/**
+ * Runs PAM several times from different initial medoids, in parallel, and keeps
+ * the clustering with the lowest cost.
+ * The first start uses the BUILD phase, so the result is never worse than BUILD
+ * alone; the others start from k distinct elements chosen at random, or chosen by
+ * k-medoids++ with weighted seeding.
+ * Each start gets its own random number generator, split from one seeded
+ * generator in start order, so the result for a given seed is the same however
+ * many threads are used.  Ties in cost go to the earliest start.
+ * All of the starts share one distance matrix.
+ * Independent of Cytoscape.
+ */
+public class MultiStartPAM implements KClusterable {
+
+	protected BaseMatrix data;
+	protected DistanceMetric metric;
+	protected DistanceMatrix distances;
+	protected int nStarts;
+	protected long seed;
+	protected boolean weightedSeeding;
+
+	/**
+	 * Constructor.
+	 * @param data matrix of data
+	 * @param metric distance metric
+	 * @param distances precomputed distances for all of the data elements
+	 * @param nStarts number of initializations to try
+	 * @param seed seed for the random initializations
+	 */
+	public MultiStartPAM(BaseMatrix data, DistanceMetric metric, DistanceMatrix distances, int nStarts, long seed) {
+		this(data, metric, distances, nStarts, seed, false);
+	}
+
+	/**
+	 * Constructor.
+	 * @param data matrix of data
+	 * @param metric distance metric
+	 * @param distances precomputed distances for all of the data elements
+	 * @param nStarts number of initializations to try
+	 * @param seed seed for the random initializations
+	 * @param weightedSeeding choose the medoids of the starts after the first by k-medoids++
+	 */
+	public MultiStartPAM(BaseMatrix data, DistanceMetric metric, DistanceMatrix distances, int nStarts, long seed,
+	                     boolean weightedSeeding) {
+		if (data == null || data.nRows() == 0) {
+			throw new IllegalArgumentException("Data matrix is empty.");
+		}
+		this.data = data;
+		this.metric = metric;
+		this.distances = distances;
+		this.nStarts = Math.max(nStarts, 1);
+		this.seed = seed;
+		this.weightedSeeding = weightedSeeding;
+	}
+
+	@Override
+	public Clusters cluster(final int k) {
+		final int n = size();
+		if (k >= n) {
+			return new PAM(data, metric, distances, null).cluster(k);
+		}
+
+		// split the generators up front so start s always gets the same one
+		SplittableRandom random = new SplittableRandom(seed);
+		final SplittableRandom[] randoms = new SplittableRandom[nStarts];
+		for (int s = 0; s < nStarts; ++s) {
+			randoms[s] = random.split();
+		}
+
+		final Clusters[] results = new Clusters[nStarts];
+		final AtomicInteger nextStart = new AtomicInteger(0);
+		Runnable task = new Runnable() {
+			public void run() {
+				int s;
+				while ((s = nextStart.getAndIncrement()) < nStarts) {
+					int[] medoids = null;
+					if (s > 0 && weightedSeeding) {
+						medoids = KMedoidsSeeding.chooseCenters(distances, k, randoms[s]);
+					} else if (s > 0) {
+						medoids = KMedoidsSeeding.chooseRandomCenters(n, k, randoms[s]);
+					}
+					results[s] = new PAM(data, metric, distances, null).cluster(k, medoids);
+				}
+			}
+		};
+
+		int nThreads = Math.min(Runtime.getRuntime().availableProcessors(), nStarts);
+		if (nThreads <= 1) {
+			task.run();
+		} else {
+			ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int t = 0; t < nThreads; ++t) {
+				futures.add(threadPool.submit(task));
+			}
+			threadPool.shutdown();
+			try {
+				for (Future<?> future: futures) {
+					future.get();
+				}
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		Clusters best = results[0];
+		for (int s = 1; s < nStarts; ++s) {
+			if (results[s].getCost() < best.getCost()) {
+				best = results[s];
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Size. Number of data elements.
+	 */
+	@Override
+	public int size() {
+		return data.nRows();
+	}
+
+}
@@ -44,6 +44,9 @@ public class PAM implements KClusterable {
 	// clustering cost, to be minimized
 	double cost;
 	
+	// cost of the medoids the SWAP phase started from (SWAP never raises it)
+	double initialCost;
+	
 	// distance between element and closest medoid
 	protected double[] nearestDistances;
 	// distance between element and second closest medoid
@@ -70,7 +73,23 @@ public class PAM implements KClusterable {
 		this(data, metric, null, null);
 	}
 	
+	public PAM(BaseMatrix data, DistanceMetric metric, boolean singlePrecision) {
+		this(data, metric, null, null, singlePrecision);
+	}
+	
 	public PAM(BaseMatrix data, DistanceMetric metric, DistanceMatrix distances, int[] idx) {
+		this(data, metric, distances, idx, false);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param data matrix of data
+	 * @param metric distance metric
+	 * @param distances precomputed distances, or null to compute them
+	 * @param idx index array, or null for all of the data elements
+	 * @param singlePrecision store computed distances as floats (halves the memory)
+	 */
+	public PAM(BaseMatrix data, DistanceMetric metric, DistanceMatrix distances, int[] idx, boolean singlePrecision) {
 		this.data = data;
 		this.metric = metric;
 		
@@ -89,7 +108,7 @@ public class PAM implements KClusterable {
 		this.idx = idx;
 		
 		if (distances == null) {
-			this.distances = new DistanceMatrix(data, metric, idx);
+			this.distances = new DistanceMatrix(data, metric, idx, singlePrecision);
 		} else {
 			this.distances = distances.subset(idx);
 		}
@@ -99,6 +118,17 @@ public class PAM implements KClusterable {
 
 	@Override
 	public Clusters cluster(int k) {
+		return cluster(k, null);
+	}
+	
+	/**
+	 * Cluster, starting the SWAP phase from the given medoids instead of the ones
+	 * chosen by the BUILD phase.
+	 * @param k number of clusters
+	 * @param initialMedoids k distinct element indices, or null to use BUILD
+	 * @return clusters
+	 */
+	public Clusters cluster(int k, int[] initialMedoids) {
 		int n = size();
 		if (n == 0) {
 			throw new IllegalArgumentException("No data elements are indexed.");
@@ -112,9 +142,27 @@ public class PAM implements KClusterable {
 		
 		this.nClusters = k;
 		
+		if (initialMedoids != null && initialMedoids.length != k) {
+			throw new IllegalArgumentException("Number of initial medoids must match the number of clusters.");
+		}
+		
 		initialize();
-		buildPhase();
-		swapPhase();
+		try {
+			if (initialMedoids == null) {
+				buildPhase();
+			} else {
+				for (int ii: initialMedoids) {
+					addMedoid(ii);
+				}
+			}
+			initialCost = getCost();
+			swapPhase();
+		} finally {
+			// the medoids' distances are pinned while they are medoids
+			for (Integer ii: medoids) {
+				distances.unpinRow(ii.intValue());
+			}
+		}
 		clusters = new Clusters(nearestMedoids, getCost());
 		
 		return clusters;
@@ -252,7 +300,6 @@ public class PAM implements KClusterable {
 		
 		while (notConverged && continueLoop) {
 			notConverged = false;
-			continueLoop = false;
 	
 			Iterator<Integer> medIt = medoids.iterator();
 			while (medIt.hasNext() && continueLoop) {
@@ -275,19 +322,19 @@ public class PAM implements KClusterable {
 						double d = nearestDistances[jj];
 						if (distances.getValue(ii, jj) > d) {
 							// if removed, i will have no impact
-							if (distances.getValue(jj, hh) < d) {
+							if (distances.getValue(hh, jj) < d) {
 								// if selected, h will improve nearest distance for j
-								change += distances.getValue(jj, hh) - d;
+								change += distances.getValue(hh, jj) - d;
 							}
 						} else {
 							// i cannot be closer than the nearest neighbour for j;
 							// therefore, distances[i][j] == d
 							// and i is currently the nearest neighbour for j
 							double e = nextNearestDistances[jj];
-							if (distances.getValue(jj, hh) < e) {
+							if (distances.getValue(hh, jj) < e) {
 								// if i and h are swapped, h will become the nearest neighbour
 								// nearest distance for j may improve or worsen
-								change += distances.getValue(jj, hh) - d;
+								change += distances.getValue(hh, jj) - d;
 							} else {
 								// if i is removed, the current next-nearest of j will be promoted to nearest
 								change += e - d;
@@ -295,6 +342,11 @@ public class PAM implements KClusterable {
 						}
 					}
 					
+					// h becomes a medoid, so its own distance drops to zero
+					change -= nearestDistances[hh];
+					// i becomes a nonmedoid, nearest to either h or its nearest remaining medoid
+					change += Math.min(distances.getValue(hh, ii), nextNearestDistances[ii]);
+					
 					if (change < 0) {
 						// distance to nearest medoid summed over all nonmedoids is improved: swap
 						swap(hh, ii);
@@ -321,16 +373,19 @@ public class PAM implements KClusterable {
 	}
 	
 	private void addMedoid(int add) {
+		distances.pinRow(add);
 		medoids.add( elements[add] );
 		nonmedoids.remove( elements[add] );
 		updateNearest(add, -1);
 	}
 	
 	private void swap(int add, int remove) {
+		distances.pinRow(add);
 		medoids.add( elements[add] );
 		nonmedoids.remove( elements[add] );
 		medoids.remove( elements[remove] );
 		nonmedoids.add( elements[remove] );
+		distances.unpinRow(remove);
 		updateNearest(add, remove);
 	}
 	
@@ -348,7 +403,8 @@ public class PAM implements KClusterable {
 			
 			// check if any nearest distance improves
 			for (int ii = 0; ii < m; ++ii) {
-				double d = distances.getValue(ii, added);
+				// added first: it's pinned, so a lazy matrix has its row
+				double d = distances.getValue(added, ii);
 				if (d < nearestDistances[ii]) {
 					// element i is nearer to added medoid than previous nearest: update
 					double oldDistance = nearestDistances[ii];
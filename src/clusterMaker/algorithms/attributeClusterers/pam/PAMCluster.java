@@ -1,15 +1,22 @@
 package clusterMaker.algorithms.attributeClusterers.pam;
 
+import java.util.SplittableRandom;
+
 import cytoscape.logger.CyLogger;
 import cytoscape.task.TaskMonitor;
 
 import clusterMaker.algorithms.attributeClusterers.AbstractAttributeClusterAlgorithm;
 import clusterMaker.algorithms.attributeClusterers.Clusters;
+import clusterMaker.algorithms.attributeClusterers.DistanceMatrix;
 import clusterMaker.algorithms.attributeClusterers.DistanceMetric;
+import clusterMaker.algorithms.attributeClusterers.LazyDistanceMatrix;
 import clusterMaker.algorithms.attributeClusterers.Matrix;
 
 public class PAMCluster extends AbstractAttributeClusterAlgorithm {
 	
+	// if positive, compute distances as needed and keep at most this many rows
+	private int distanceCacheRows = 0;
+	
 	public PAMCluster(String weightAttributes[], DistanceMetric metric, CyLogger log, TaskMonitor monitor) {
 		this.logger = log;
 		this.weightAttributes = weightAttributes;
@@ -18,13 +25,31 @@ public class PAMCluster extends AbstractAttributeClusterAlgorithm {
 		resetAttributes();
 	}
 	
+	public void setDistanceCacheRows(int val) { distanceCacheRows = val; }
+	
 	@Override
 	public int kcluster(int nClusters, int nIterations, Matrix matrix, DistanceMetric metric, int[] clusterId) {
 		
 		if (monitor != null) monitor.setPercentCompleted(0);
 		
-		PAM pam = new PAM(matrix, metric);
-		Clusters c = pam.cluster(nClusters);
+		DistanceMatrix distances;
+		if (distanceCacheRows > 0 && distanceCacheRows < matrix.nRows()) {
+			distances = new LazyDistanceMatrix(matrix, metric, null, distanceCacheRows);
+		} else {
+			distances = new DistanceMatrix(matrix, metric, null, singlePrecision);
+		}
+		
+		// each iteration is another start; the first always uses BUILD
+		Clusters c;
+		if (nIterations > 1) {
+			c = new MultiStartPAM(matrix, metric, distances, nIterations, randomSeed, initializeNearCenter).cluster(nClusters);
+		} else if (initializeNearCenter && nClusters < matrix.nRows()) {
+			// k-medoids++ instead of BUILD
+			int[] medoids = chooseDistanceWeightedElementsAsCenters(nClusters, distances, new SplittableRandom(randomSeed));
+			c = new PAM(matrix, metric, distances, null).cluster(nClusters, medoids);
+		} else {
+			c = new PAM(matrix, metric, distances, null).cluster(nClusters);
+		}
 		
 		// copy results into clusterId
 		for (int i = 0; i < c.size(); ++i) {
@@ -21,6 +21,13 @@ import clusterMaker.ui.KnnView;
  */
 public class PAMClusterer extends AbstractAttributeClusterer {
 	
+	// maximum number of distance rows to keep (0 computes the whole matrix)
+	private int distanceCacheRows = 0;
+	
+	// number of starts (the best is kept) and the seed for the random ones
+	private int nIterations = 1;
+	private long randomSeed = 0;
+	
 	public PAMClusterer() {
 		logger = CyLogger.getLogger(PAMClusterer.class);
 		initializeProperties();
@@ -32,7 +39,23 @@ public class PAMClusterer extends AbstractAttributeClusterer {
 		
 		addKTunables();
 		
-		// TODO Number of iterations
+		clusterProperties.add(
+			new Tunable(
+				"iterations",
+				"Number of starts (best result is kept)",
+				Tunable.INTEGER, new Integer(nIterations),
+				(Object)null, (Object)null, 0
+			)
+		);
+		
+		clusterProperties.add(
+			new Tunable(
+				"randomSeed",
+				"Random seed",
+				Tunable.INTEGER, new Integer((int) randomSeed),
+				(Object)null, (Object)null, 0
+			)
+		);
 		
 		clusterProperties.add(
 			new Tunable(
@@ -85,6 +108,23 @@ public class PAMClusterer extends AbstractAttributeClusterer {
 			)
 		);
 		
+		clusterProperties.add(
+			new Tunable(
+				"singlePrecision",
+				"Store distances in single precision (saves memory)",
+				Tunable.BOOLEAN, new Boolean(singlePrecision)
+			)
+		);
+		
+		clusterProperties.add(
+			new Tunable(
+				"distanceCacheRows",
+				"Distance rows to keep in memory (0 for all)",
+				Tunable.INTEGER, new Integer(distanceCacheRows),
+				(Object)null, (Object)null, 0
+			)
+		);
+		
 		clusterProperties.initializeProperties();
 		updateSettings(true);
 	}
@@ -101,7 +141,15 @@ public class PAMClusterer extends AbstractAttributeClusterer {
 		
 		Tunable t;
 		
-		// TODO Number of iterations
+		t = clusterProperties.get("iterations");
+		if ((t != null) && (t.valueChanged() || force)) {
+			nIterations = ((Integer) t.getValue()).intValue();
+		}
+		
+		t = clusterProperties.get("randomSeed");
+		if ((t != null) && (t.valueChanged() || force)) {
+			randomSeed = ((Integer) t.getValue()).longValue();
+		}
 		
 		t = clusterProperties.get("dMetric");
 		if ((t != null) && (t.valueChanged() || force)) {
@@ -123,6 +171,16 @@ public class PAMClusterer extends AbstractAttributeClusterer {
 			createGroups = ((Boolean) t.getValue()).booleanValue();
 		}
 
+		t = clusterProperties.get("singlePrecision");
+		if ((t != null) && (t.valueChanged() || force)) {
+			singlePrecision = ((Boolean) t.getValue()).booleanValue();
+		}
+
+		t = clusterProperties.get("distanceCacheRows");
+		if ((t != null) && (t.valueChanged() || force)) {
+			distanceCacheRows = ((Integer) t.getValue()).intValue();
+		}
+
 		t = clusterProperties.get("attributeList");
 		if ((t != null) && (t.valueChanged() || force)) {
 			dataAttributes = (String) t.getValue();
@@ -187,12 +245,14 @@ public class PAMClusterer extends AbstractAttributeClusterer {
 		algo.setDebug(debug);
 		algo.setUseSilhouette(useSilhouette);
 		algo.setKMax(kMax);
+		algo.setSinglePrecision(singlePrecision);
+		algo.setDistanceCacheRows(distanceCacheRows);
+		algo.setRandomSeed(randomSeed);
+		algo.setInitializeNearCenter(initializeNearCenter);
 		algo.setClusterInterface(this);
 		
 		String resultsString = "PAM results:";
 		
-		int nIterations = 0;
-		
 		// Cluster the attributes
 		if (clusterAttributes && attributeArray.length > 1) {
 			if (monitor != null) {
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2008 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions, and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions, and the following
+ *      disclaimer in the documentation and/or other materials provided
+ *      with the distribution.
+ *   3. Redistributions must acknowledge that this software was
+ *      originally developed by the UCSF Computer Graphics Laboratory
+ *      under support by the NIH National Center for Research Resources,
+ *      grant P41-RR01081.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE REGENTS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package clusterMaker.algorithms.attributeClusterers.hierarchical;
+
+import java.util.Random;
+
+import clusterMaker.algorithms.attributeClusterers.BaseMatrix;
+import clusterMaker.algorithms.attributeClusterers.Clusters;
+import clusterMaker.algorithms.attributeClusterers.DistanceMetric;
+import clusterMaker.algorithms.attributeClusterers.pam.PAM;
+
+/**
+ * Compares single and double precision distance matrices on the same data:
+ * the merges made by maximum and average linkage, and the assignments and
+ * costs from PAM.  The data is drawn from Gaussian clusters with a few values
+ * missing, from a fixed seed, so a run is reproducible.
+ *
+ * Usage: PrecisionBenchmark [rows [columns [clusters [seed]]]]
+ * (defaults 1500 40 12 11).  With the project built, run it from the top
+ * directory with something like
+ *   java -cp build/classes:build/test/classes:lib/cytoscape.jar \
+ *     clusterMaker.algorithms.attributeClusterers.hierarchical.PrecisionBenchmark
+ */
+public class PrecisionBenchmark {
+	static final DistanceMetric[] METRICS = { DistanceMetric.EUCLIDEAN, DistanceMetric.CORRELATION };
+	static final int[] PAM_CLUSTERS = { 4, 8, 12 };
+
+	public static void main(String[] args) {
+		int nRows = args.length > 0 ? Integer.parseInt(args[0]) : 1500;
+		int nColumns = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+		int nClusters = args.length > 2 ? Integer.parseInt(args[2]) : 12;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 11;
+
+		BaseMatrix data = makeData(nRows, nColumns, nClusters, new Random(seed));
+		System.out.println(nRows+" rows, "+nColumns+" columns, "+nClusters+" clusters, seed "+seed);
+
+		for (DistanceMetric metric: METRICS) {
+			long start = System.nanoTime();
+			double[][] distances = data.getDistanceMatrix(metric);
+			long middle = System.nanoTime();
+			float[][] floatDistances = data.getFloatDistanceMatrix(metric);
+			long end = System.nanoTime();
+			System.out.printf("%s: distances double %.0f ms, float %.0f ms%n", metric, 
+			                  (middle-start)/1e6, (end-middle)/1e6);
+
+			compareLinkage("maximum", ClusterMethod.MAXIMUM_LINKAGE, distances, floatDistances, nClusters);
+			compareLinkage("average", ClusterMethod.AVERAGE_LINKAGE, distances, floatDistances, nClusters);
+
+			for (int k: PAM_CLUSTERS) {
+				start = System.nanoTime();
+				Clusters doubleClusters = new PAM(data, metric, false).cluster(k);
+				middle = System.nanoTime();
+				Clusters floatClusters = new PAM(data, metric, true).cluster(k);
+				end = System.nanoTime();
+				int same = 0;
+				for (int i = 0; i < nRows; i++) {
+					if (doubleClusters.getClusterIndex(i) == floatClusters.getClusterIndex(i))
+						same++;
+				}
+				System.out.printf("  PAM k=%d: %d/%d same assignments, cost %.6f vs %.6f, double %.0f ms, float %.0f ms%n",
+				                  k, same, nRows, doubleClusters.getCost(), floatClusters.getCost(),
+				                  (middle-start)/1e6, (end-middle)/1e6);
+			}
+		}
+	}
+
+	static BaseMatrix makeData(int nRows, int nColumns, int nClusters, Random random) {
+		double[][] centers = new double[nClusters][nColumns];
+		for (double[] center: centers) {
+			for (int column = 0; column < nColumns; column++)
+				center[column] = random.nextGaussian()*2;
+		}
+		BaseMatrix data = new BaseMatrix(nRows, nColumns);
+		for (int row = 0; row < nRows; row++) {
+			double[] center = centers[random.nextInt(nClusters)];
+			for (int column = 0; column < nColumns; column++) {
+				// about 2% of the values are missing
+				if (random.nextInt(50) > 0)
+					data.setValue(row, column, center[column]+random.nextGaussian());
+			}
+		}
+		data.setUniformWeights();
+		return data;
+	}
+
+	static void compareLinkage(String name, ClusterMethod method, double[][] distances, 
+	                           float[][] floatDistances, int nClusters) {
+		int nRows = distances.length;
+		// the linkage loops overwrite the matrix, so give them copies
+		double[][] doubleCopy = new double[nRows][];
+		float[][] floatCopy = new float[nRows][];
+		for (int row = 0; row < nRows; row++) {
+			doubleCopy[row] = distances[row].clone();
+			floatCopy[row] = floatDistances[row].clone();
+		}
+
+		long start = System.nanoTime();
+		TreeNode[] doubleTree = (method == ClusterMethod.MAXIMUM_LINKAGE) ?
+		                        PairwiseLinkage.pmlcluster(nRows, doubleCopy) :
+		                        PairwiseLinkage.palcluster(nRows, doubleCopy);
+		long middle = System.nanoTime();
+		TreeNode[] floatTree = (method == ClusterMethod.MAXIMUM_LINKAGE) ?
+		                       PairwiseLinkage.pmlcluster(nRows, floatCopy) :
+		                       PairwiseLinkage.palcluster(nRows, floatCopy);
+		long end = System.nanoTime();
+
+		int same = 0;
+		int firstDifference = -1;
+		for (int i = 0; i < doubleTree.length; i++) {
+			int left = doubleTree[i].getLeft(), right = doubleTree[i].getRight();
+			if ((left == floatTree[i].getLeft() && right == floatTree[i].getRight()) ||
+			    (left == floatTree[i].getRight() && right == floatTree[i].getLeft()))
+				same++;
+			else if (firstDifference < 0)
+				firstDifference = i;
+		}
+
+		// Even when the merges differ, the flat clusterings may agree
+		int[] doubleCut = cut(doubleTree, nRows, nClusters);
+		int[] floatCut = cut(floatTree, nRows, nClusters);
+		long agree = 0, total = 0;
+		for (int i = 0; i < nRows; i++) {
+			for (int j = i+1; j < nRows; j++) {
+				total++;
+				if ((doubleCut[i] == doubleCut[j]) == (floatCut[i] == floatCut[j]))
+					agree++;
+			}
+		}
+		System.out.printf("  %s linkage: %d/%d identical merges (first difference at %d), "+
+		                  "%d-cluster Rand index %.5f, double %.0f ms, float %.0f ms%n", 
+		                  name, same, doubleTree.length, firstDifference, nClusters, 
+		                  agree/(double)total, (middle-start)/1e6, (end-middle)/1e6);
+	}
+
+	/*
+	 * Cut a tree into k clusters: the cluster of each row, identified by the
+	 * root of its subtree after all but the last k-1 merges
+	 */
+	static int[] cut(TreeNode[] tree, int nRows, int k) {
+		int[] parent = new int[2*nRows];
+		for (int i = 0; i < parent.length; i++)
+			parent[i] = i;
+		for (int i = 0; i < tree.length-(k-1); i++) {
+			// group -i-1 is node nRows+i here
+			int left = tree[i].getLeft(), right = tree[i].getRight();
+			parent[find(parent, left < 0 ? nRows-left-1 : left)] = nRows+i;
+			parent[find(parent, right < 0 ? nRows-right-1 : right)] = nRows+i;
+		}
+		int[] clusters = new int[nRows];
+		for (int i = 0; i < nRows; i++)
+			clusters[i] = find(parent, i);
+		return clusters;
+	}
+
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i)
+			i = parent[i];
+		return i;
+	}
+}
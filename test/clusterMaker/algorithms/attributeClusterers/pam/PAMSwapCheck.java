@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2008 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions, and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions, and the following
+ *      disclaimer in the documentation and/or other materials provided
+ *      with the distribution.
+ *   3. Redistributions must acknowledge that this software was
+ *      originally developed by the UCSF Computer Graphics Laboratory
+ *      under support by the NIH National Center for Research Resources,
+ *      grant P41-RR01081.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE REGENTS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package clusterMaker.algorithms.attributeClusterers.pam;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import clusterMaker.algorithms.attributeClusterers.BaseMatrix;
+import clusterMaker.algorithms.attributeClusterers.Clusters;
+import clusterMaker.algorithms.attributeClusterers.DistanceMetric;
+import clusterMaker.algorithms.attributeClusterers.KMedoidsSeeding;
+
+/**
+ * Checks that PAM's SWAP phase never ends at a higher cost than the medoids
+ * it started from, both after BUILD and after a random start.  Each data set
+ * is drawn uniformly from a seeded generator, with a random size, number of
+ * columns and k, and clustered with Euclidean distances.
+ *
+ * Usage: PAMSwapCheck [datasets] (default 500).  Exits with status 1 if any
+ * data set fails.  With the project built, run it from the top directory with
+ *   java -cp build/classes:build/test/classes:lib/cytoscape.jar \
+ *     clusterMaker.algorithms.attributeClusterers.pam.PAMSwapCheck
+ */
+public class PAMSwapCheck {
+	// allowed rounding error, relative to the cost
+	static final double TOLERANCE = 1e-9;
+
+	public static void main(String[] args) {
+		int nDatasets = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int failures = 0;
+		for (int seed = 0; seed < nDatasets; seed++) {
+			Random random = new Random(seed);
+			int nRows = 20 + random.nextInt(100);
+			int nColumns = 2 + random.nextInt(4);
+			int k = 2 + random.nextInt(7);
+			BaseMatrix data = new BaseMatrix(nRows, nColumns);
+			for (int row = 0; row < nRows; row++) {
+				for (int column = 0; column < nColumns; column++)
+					data.setValue(row, column, random.nextDouble());
+			}
+			data.setUniformWeights();
+
+			PAM pam = new PAM(data, DistanceMetric.EUCLIDEAN);
+			Clusters built = pam.cluster(k);
+			if (!check("BUILD", seed, pam.initialCost, built.getCost()))
+				failures++;
+
+			int[] medoids = KMedoidsSeeding.chooseRandomCenters(nRows, k, 
+			                    new SplittableRandom(seed));
+			Clusters started = pam.cluster(k, medoids);
+			if (!check("random start", seed, pam.initialCost, started.getCost()))
+				failures++;
+		}
+		System.out.println(failures+" failures in "+nDatasets+" data sets");
+		if (failures > 0)
+			System.exit(1);
+	}
+
+	static boolean check(String start, int seed, double before, double after) {
+		if (after <= before + TOLERANCE * Math.abs(before))
+			return true;
+		System.out.printf("seed %d: SWAP after %s raised the cost from %.6f to %.6f%n", 
+		                  seed, start, before, after);
+		return false;
+	}
+}